@@ -0,0 +1,67 @@
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forward filtering over a whole reading sequence, from 10x10 to 2000x2000 mazes.
+ * The belief is streamed through a BeliefTracker so only the per step cost is measured,
+ * not the storage of every distribution. stencilForward runs the same steps on the
+ * maze shaped grid of GridStencil.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FilterBenchmark {
+
+    @Param({"10", "100", "500", "2000"})
+    public int size;
+
+    @Param({"100", "1000"})
+    public int steps;
+
+    @Param({"0.2"})
+    public double wallDensity;
+
+    private BeliefTracker tracker;
+    private char[] readings;
+    private GridStencil stencil;
+    private double[] prior;
+    private double[] grid;
+    private double[] next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CompiledModel model = CompiledModel.compile(MazeGenerator.generate(size, size, wallDensity, "rgby", 42));
+        tracker = model.newTracker(0);
+        readings = MazeGenerator.randomReadings(steps, 7);
+        stencil = new GridStencil(model);
+        prior = stencil.toGrid(model.uniformPrior(), new double[stencil.getCellNumber()]);
+        grid = new double[prior.length];
+        next = new double[prior.length];
+    }
+
+    @Benchmark
+    public void forward(Blackhole blackhole) {
+        tracker.reset();
+        for (char reading : readings) {
+            tracker.observe(Maze.NO_MOVE, reading);
+        }
+        blackhole.consume(tracker.getBelief());
+    }
+
+    @Benchmark
+    public void stencilForward(Blackhole blackhole) {
+        System.arraycopy(prior, 0, grid, 0, prior.length);
+        for (char reading : readings) {
+            stencil.forward(grid, reading, next);
+            double[] swap = grid;
+            grid = next;
+            next = swap;
+        }
+        blackhole.consume(grid);
+    }
+}
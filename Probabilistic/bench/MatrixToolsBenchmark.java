@@ -0,0 +1,75 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The dense helpers in MatrixTools on square matrices and vectors.
+ * The fork adds jdk.incubator.vector so the SIMD kernels are measured;
+ * run with -jvmArgsAppend -Dmatrixtools.vector=false for the scalar ones.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"--add-modules", "jdk.incubator.vector"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MatrixToolsBenchmark {
+
+    @Param({"16", "64", "256", "512"})
+    public int n;
+
+    private double[][] a;
+    private double[][] b;
+    private double[] v;
+    private double[] w;
+    private double[] flatA;
+    private double[] flatB;
+    private double[] flatOut;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        a = new double[n][n];
+        b = new double[n][n];
+        v = new double[n];
+        w = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                a[i][j] = random.nextDouble();
+                b[i][j] = random.nextDouble();
+            }
+            v[i] = random.nextDouble();
+            w[i] = random.nextDouble();
+        }
+        flatA = MatrixTools.toFlat(a);
+        flatB = MatrixTools.toFlat(b);
+        flatOut = new double[n * n];
+    }
+
+    @Benchmark
+    public double[][] multiple() {
+        return MatrixTools.multiple(a, b);
+    }
+
+    @Benchmark
+    public double[] multiplyFlat() {
+        MatrixTools.multiply(flatA, flatB, flatOut, n, n, n);
+        return flatOut;
+    }
+
+    @Benchmark
+    public double[][] transpose() {
+        return MatrixTools.transpose(a);
+    }
+
+    @Benchmark
+    public double[] vectorMultiple() {
+        return MatrixTools.vectorMultiple(v, w);
+    }
+
+    @Benchmark
+    public double[] vectorNormalize() {
+        return MatrixTools.vectorNormalize(v);
+    }
+}
@@ -0,0 +1,39 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to compile a maze into its transition and sensor model, from 10x10 to 2000x2000.
+ * <p>
+ * The bench sources only need the project classes and jmh-core / jmh-generator-annprocess
+ * on the classpath; run with e.g. {@code java -jar benchmarks.jar ModelBuildBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ModelBuildBenchmark {
+
+    @Param({"10", "100", "500", "2000"})
+    public int size;
+
+    @Param({"0.2"})
+    public double wallDensity;
+
+    @Param({"rgby"})
+    public String colors;
+
+    private Maze maze;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        maze = MazeGenerator.generate(size, size, wallDensity, colors, 42);
+    }
+
+    @Benchmark
+    public CompiledModel compile() {
+        return CompiledModel.compile(maze);
+    }
+}
@@ -0,0 +1,51 @@
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole sequence inference: filtering with stored history, forward-backward and viterbi.
+ * These keep one vector per step, so the largest mazes are left to FilterBenchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SmoothingBenchmark {
+
+    @Param({"10", "50", "100", "200"})
+    public int size;
+
+    @Param({"100", "1000"})
+    public int steps;
+
+    @Param({"0.2"})
+    public double wallDensity;
+
+    private CompiledModel model;
+    private double[] prior;
+    private char[] readings;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = CompiledModel.compile(MazeGenerator.generate(size, size, wallDensity, "rgby", 42));
+        prior = model.uniformPrior();
+        readings = MazeGenerator.randomReadings(steps, 7);
+    }
+
+    @Benchmark
+    public double[][] filter() {
+        return model.filter(prior, readings);
+    }
+
+    @Benchmark
+    public double[][] forwardBackward() {
+        return model.forwardBackward(prior, readings);
+    }
+
+    @Benchmark
+    public int[] viterbi() {
+        return model.viterbi(prior, readings);
+    }
+}
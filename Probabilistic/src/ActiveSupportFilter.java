@@ -0,0 +1,311 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Exact-model filter that only works on the active support: the states whose belief is
+ * above epsilon. Mass below epsilon is dropped and the rest renormalized, so once the robot
+ * is roughly localised a step only visits the successors of a few tiles instead of the
+ * whole maze. When the support grows beyond a fraction of the states the step falls back
+ * to the dense kernels, which are faster than the list bookkeeping for a spread belief.
+ * <p>
+ * With epsilon 0 nothing is dropped and the result is the one of BeliefTracker, up to the
+ * order of the floating point sums.
+ */
+public class ActiveSupportFilter implements LocalisationFilter {
+    private final TransitionModel T;
+    private final SensorModel O;
+    private final double[] prior;
+    private final double epsilon;
+    private final int denseLimit;
+
+    // while not dense, belief is zero outside the support list.
+    private double[] belief;
+    private double[] next;
+    private int[] support;
+    private int[] nextSupport;
+    private int supportSize;
+    private boolean dense;         // support is not tracked, every state may be nonzero.
+    private final int[] mark;      // mark[j] == stamp when j is already in nextSupport.
+    private int stamp;
+    private long steps;
+    private InferenceMetrics metrics = InferenceMetrics.NOOP;
+
+    /**
+     * active support filter falling back to dense steps above a quarter of the states.
+     *
+     * @param epsilon states with a belief at or below epsilon are dropped.
+     */
+    public ActiveSupportFilter(TransitionModel T, SensorModel O, double[] prior, double epsilon) {
+        this(T, O, prior, epsilon, 0.25);
+    }
+
+    /**
+     * @param T             transition model.
+     * @param O             sensor model.
+     * @param prior         initial distribution, copied.
+     * @param epsilon       states with a belief at or below epsilon are dropped.
+     * @param denseFraction use a dense step while the support is larger than this fraction of the states.
+     */
+    public ActiveSupportFilter(TransitionModel T, SensorModel O, double[] prior, double epsilon, double denseFraction) {
+        if (prior.length != T.getStateNumber()) throw new IllegalArgumentException("prior has wrong length");
+        if (epsilon < 0) throw new IllegalArgumentException("epsilon must not be negative");
+        this.T = T;
+        this.O = O;
+        this.prior = prior.clone();
+        this.epsilon = epsilon;
+        int n = prior.length;
+        this.denseLimit = (int) Math.min(n, Math.max(1, Math.round(denseFraction * n)));
+        belief = new double[n];
+        next = new double[n];
+        support = new int[n];
+        nextSupport = new int[n];
+        mark = new int[n];
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        System.arraycopy(prior, 0, belief, 0, prior.length);
+        steps = 0;
+        prune();
+    }
+
+    /**
+     * take one observation.
+     *
+     * @param action ignored, the motion model is the random walk of the transition model.
+     * @param color  the color given by sensor after moving.
+     */
+    @Override
+    public void update(int[] action, char color) {
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        double sum = dense ? denseStep(color) : sparseStep(color);
+        steps++;
+        if (metrics.isEnabled()) {
+            metrics.recordTime(InferenceMetrics.FORWARD, System.nanoTime() - start);
+            metrics.increment(InferenceMetrics.STEPS, 1);
+            metrics.increment(InferenceMetrics.NONZERO_STATES, dense ? InferenceMetrics.countNonzero(belief) : supportSize);
+            if (sum == 0) metrics.increment(InferenceMetrics.UNDERFLOWS, 1);
+        }
+    }
+
+    private double denseStep(char color) {
+        double sum = FilterKernels.forward(T, O, belief, color, next);
+        double[] swap = belief;
+        belief = next;
+        next = swap;
+        prune();
+        return sum;
+    }
+
+    private double sparseStep(char color) {
+        if (++stamp == 0) {
+            Arrays.fill(mark, 0);
+            stamp = 1;
+        }
+        int nextSize = 0;
+        for (int s = 0; s < supportSize; s++) {
+            int i = support[s];
+            double p = belief[i];
+            for (int e = T.successorStart(i); e < T.successorEnd(i); e++) {
+                int j = T.successor(e);
+                if (mark[j] != stamp) {
+                    mark[j] = stamp;
+                    nextSupport[nextSize++] = j;
+                    next[j] = 0;
+                }
+                next[j] += T.successorProbability(e) * p;
+            }
+            belief[i] = 0;
+        }
+
+        double[] emission = O.getEmission(color);
+        double sum = 0;
+        for (int s = 0; s < nextSize; s++) {
+            int j = nextSupport[s];
+            next[j] *= emission[j];
+            sum += next[j];
+        }
+        double[] swap = belief;
+        belief = next;
+        next = swap;
+        int[] swapSupport = support;
+        support = nextSupport;
+        nextSupport = swapSupport;
+        supportSize = nextSize;
+        if (sum == 0 || Double.isNaN(sum)) return sum;
+
+        // drop what falls below epsilon after normalizing, and normalize again.
+        double threshold = epsilon * sum;
+        double kept = 0;
+        for (int s = 0; s < nextSize; s++) {
+            if (belief[support[s]] > threshold) kept += belief[support[s]];
+        }
+        if (kept == 0) {
+            // every state is below epsilon, keep them all.
+            threshold = Double.NEGATIVE_INFINITY;
+            kept = sum;
+        }
+        double inverse = 1.0 / kept;
+        int size = 0;
+        for (int s = 0; s < nextSize; s++) {
+            int j = support[s];
+            if (belief[j] > threshold) {
+                support[size++] = j;
+                belief[j] *= inverse;
+            } else {
+                belief[j] = 0;
+            }
+        }
+        supportSize = size;
+        if (supportSize > denseLimit) dense = true;
+        return sum;
+    }
+
+    /**
+     * drop the states at or below epsilon from a dense belief and rebuild the support list,
+     * staying dense if it is still too large.
+     */
+    private void prune() {
+        int n = belief.length;
+        int size = 0;
+        double kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (belief[i] > epsilon) {
+                size++;
+                kept += belief[i];
+            }
+        }
+        if (size == 0 || kept == 0) {
+            // nothing above epsilon, keep the belief as it is.
+            dense = true;
+            supportSize = n;
+            return;
+        }
+        dense = size > denseLimit;
+        supportSize = size;
+        if (!dense) {
+            // sparse steps only clear the entries they touch, next still holds a dense belief.
+            Arrays.fill(next, 0);
+        }
+        size = 0;
+        double inverse = 1.0 / kept;
+        for (int i = 0; i < n; i++) {
+            if (belief[i] > epsilon) {
+                belief[i] *= inverse;
+                if (!dense) support[size++] = i;
+            } else {
+                belief[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the number of states currently carrying belief.
+     */
+    public int getSupportSize() {
+        return supportSize;
+    }
+
+    /**
+     * @return true while steps go through the dense kernels.
+     */
+    public boolean isDense() {
+        return dense;
+    }
+
+    @Override
+    public long getSteps() {
+        return steps;
+    }
+
+    @Override
+    public int getEstimate() {
+        if (dense) {
+            int maxIndex = 0;
+            for (int i = 1; i < belief.length; i++) {
+                if (belief[i] > belief[maxIndex]) maxIndex = i;
+            }
+            return maxIndex;
+        }
+        int maxIndex = support[0];
+        for (int s = 1; s < supportSize; s++) {
+            int i = support[s];
+            if (belief[i] > belief[maxIndex] || (belief[i] == belief[maxIndex] && i < maxIndex)) maxIndex = i;
+        }
+        return maxIndex;
+    }
+
+    @Override
+    public double[] getBelief(double[] out) {
+        System.arraycopy(belief, 0, out, 0, belief.length);
+        return out;
+    }
+
+    /**
+     * @param metrics sink for step timings and counters, NOOP by default.
+     */
+    public void setMetrics(InferenceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * check the filter on a simulated robot in a generated maze: with a negligible epsilon against BeliefTracker, and with a
+     * positive epsilon that the belief sums to 1 and is zero outside the support. A small dense
+     * fraction makes it switch between dense and sparse steps.
+     * usage: ActiveSupportFilter [size] [steps] [seed]
+     */
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        Maze maze = MazeGenerator.generate(size, size, seed);
+        CompiledModel model = CompiledModel.compile(maze);
+        StateIndex index = model.getIndex();
+        int[][] moves = {Maze.NORTH, Maze.EAST, Maze.SOUTH, Maze.WEST};
+        SplittableRandom random = new SplittableRandom(seed);
+        char[] readings = new char[steps];
+        int position = random.nextInt(index.size());
+        for (int t = 0; t < steps; t++) {
+            int next = index.neighbour(position, moves[random.nextInt(moves.length)]);
+            if (next >= 0) position = next;
+            readings[t] = CompiledModel.sampleReading(maze.getChar(index.getX(position), index.getY(position)), random);
+        }
+
+        for (double epsilon : new double[]{0, 1e-12, 1e-3, 1e-2}) {
+            BeliefTracker tracker = model.newTracker(0);
+            ActiveSupportFilter filter = new ActiveSupportFilter(model.getTransitionModel(), model.getSensorModel(),
+                    model.uniformPrior(), epsilon, 0.05);
+            double[] belief = new double[model.getTileNumber()];
+            double maxDifference = 0;
+            int switches = 0;
+            boolean wasDense = filter.isDense();
+            for (int t = 0; t < steps; t++) {
+                tracker.update(null, readings[t]);
+                filter.update(null, readings[t]);
+                filter.getBelief(belief);
+                double sum = 0;
+                int nonzero = 0;
+                for (int i = 0; i < belief.length; i++) {
+                    sum += belief[i];
+                    if (belief[i] != 0) nonzero++;
+                    maxDifference = Math.max(maxDifference, Math.abs(belief[i] - tracker.getBelief()[i]));
+                }
+                if (Math.abs(sum - 1) > 1e-9) {
+                    throw new RuntimeException("belief sums to " + sum + " at step " + (t + 1));
+                }
+                if (!filter.isDense() && nonzero > filter.getSupportSize()) {
+                    throw new RuntimeException(nonzero + " nonzero states outside a support of "
+                            + filter.getSupportSize() + " at step " + (t + 1));
+                }
+                if (filter.isDense() != wasDense) switches++;
+                wasDense = filter.isDense();
+            }
+            if (epsilon <= 1e-12 && maxDifference > 1e-6) {
+                throw new RuntimeException("differs from BeliefTracker by " + maxDifference);
+            }
+            System.out.printf("epsilon %g: max difference to BeliefTracker %.3g, %d dense/sparse switches%n",
+                    epsilon, maxDifference, switches);
+        }
+    }
+}
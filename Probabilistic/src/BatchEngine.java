@@ -0,0 +1,63 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Analyse many observation sequences against one shared compiled model.
+ * Sequences are independent, so they are spread over the threads of a fork-join pool;
+ * the model is immutable and every sequence gets its own buffers.
+ */
+public class BatchEngine {
+    private final CompiledModel model;
+    private final ForkJoinPool pool;
+
+    /**
+     * engine running on the common fork-join pool.
+     */
+    public BatchEngine(CompiledModel model) {
+        this(model, ForkJoinPool.commonPool());
+    }
+
+    public BatchEngine(CompiledModel model, ForkJoinPool pool) {
+        this.model = model;
+        this.pool = pool;
+    }
+
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    /**
+     * filter, smooth and decode every sequence.
+     *
+     * @param sequences the color sequences, one per robot or run.
+     * @return the result of each sequence, in the same order.
+     */
+    public List<RunResult> analyseAll(List<char[]> sequences) {
+        return PoolTasks.runIn(pool, () -> sequences.parallelStream()
+                .map(model::analyse)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * only filter every sequence.
+     *
+     * @return the filtered distributions of each sequence, in the same order.
+     */
+    public List<double[][]> filterAll(List<char[]> sequences) {
+        return PoolTasks.runIn(pool, () -> sequences.parallelStream()
+                .map(readings -> model.filter(model.uniformPrior(), readings))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * only decode the viterbi path of every sequence.
+     *
+     * @return the most likely states of each sequence, in the same order.
+     */
+    public List<int[]> viterbiAll(List<char[]> sequences) {
+        return PoolTasks.runIn(pool, () -> sequences.parallelStream()
+                .map(readings -> model.viterbi(model.uniformPrior(), readings))
+                .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Fit the sensor hit probability and the stay probability of a maze model to recorded runs
+ * by expectation maximisation (Baum-Welch).
+ * <p>
+ * The E-step is a scaled forward-backward pass per sequence: forward messages are the
+ * normalized filter, backward messages are normalized every step, so nothing underflows
+ * however long a run is. Sequences are spread over a fork-join pool, each thread adds up
+ * expected counts of its own and the partial counts are merged at the end. The M-step
+ * recompiles the model with the new parameters; the sensor miss probability is spread evenly
+ * over the wrong colors and the prior stays uniform.
+ * <p>
+ * A stay probability of exactly 0 is a fixed point of EM, start from a positive one to fit it.
+ */
+public class BaumWelchTrainer {
+    private final Maze maze;
+    private final ForkJoinPool pool;
+    private int iterations;
+    private double logLikelihood = Double.NaN;
+
+    /**
+     * trainer running on the common fork-join pool.
+     */
+    public BaumWelchTrainer(Maze maze) {
+        this(maze, ForkJoinPool.commonPool());
+    }
+
+    public BaumWelchTrainer(Maze maze, ForkJoinPool pool) {
+        if (maze == null) throw new RuntimeException("maze is null");
+        this.maze = maze;
+        this.pool = pool;
+    }
+
+    /**
+     * run EM until the log likelihood improves by less than tolerance or maxIterations is reached.
+     *
+     * @param sequences the recorded color sequences, each starting from an unknown tile.
+     * @param initial   parameters to start from.
+     * @return the fitted parameters.
+     */
+    public ModelParameters train(List<char[]> sequences, ModelParameters initial, int maxIterations, double tolerance) {
+        ModelParameters parameters = initial;
+        double previous = Double.NEGATIVE_INFINITY;
+        iterations = 0;
+        while (iterations < maxIterations) {
+            ExpectedCounts counts = expectation(CompiledModel.compile(maze, parameters, InferenceMetrics.NOOP), sequences);
+            iterations++;
+            logLikelihood = counts.logLikelihood;
+            parameters = counts.maximise(parameters);
+            if (counts.logLikelihood - previous < tolerance) break;
+            previous = counts.logLikelihood;
+        }
+        return parameters;
+    }
+
+    /**
+     * @return the number of iterations of the last train call.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the log likelihood of the sequences under the parameters of the last E-step.
+     */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    /**
+     * the E-step over all sequences, in parallel.
+     */
+    ExpectedCounts expectation(CompiledModel model, List<char[]> sequences) {
+        int[] tileColor = new int[model.getTileNumber()];
+        StateIndex index = model.getIndex();
+        for (int i = 0; i < tileColor.length; i++) {
+            char c = maze.getChar(index.getX(i), index.getY(i));
+            tileColor[i] = -1;
+            for (int k = 0; k < SensorModel.COLORS.length; k++) {
+                if (SensorModel.COLORS[k] == c) tileColor[i] = k;
+            }
+        }
+        return PoolTasks.runIn(pool, () -> sequences.parallelStream()
+                .collect(() -> new ExpectedCounts(model, tileColor),
+                        ExpectedCounts::add,
+                        ExpectedCounts::merge));
+    }
+
+    /**
+     * expected counts of one thread, with the buffers it reuses from sequence to sequence.
+     */
+    static class ExpectedCounts {
+        private final CompiledModel model;
+        private final int[] tileColor;
+        double hits;        // expected readings of the true color.
+        double readings;    // readings seen.
+        double stays;       // expected steps where the robot chose to stay.
+        double transitions; // steps seen.
+        double logLikelihood;
+
+        private double[][] alpha = new double[0][];
+        private double[] scale = new double[0];
+        private double[] beta;
+        private double[] nextBeta;
+        private double[] scratch;
+
+        ExpectedCounts(CompiledModel model, int[] tileColor) {
+            this.model = model;
+            this.tileColor = tileColor;
+        }
+
+        /**
+         * add the expected counts of one sequence.
+         */
+        void add(char[] sensorReadings) {
+            int n = model.getTileNumber();
+            int steps = sensorReadings.length;
+            TransitionModel T = model.getTransitionModel();
+            SensorModel O = model.getSensorModel();
+            double stay = model.getParameters().getStayProbability();
+            if (alpha.length < steps + 1) {
+                alpha = Arrays.copyOf(alpha, Math.max(steps + 1, alpha.length * 2));
+                scale = new double[alpha.length];
+                beta = new double[n];
+                nextBeta = new double[n];
+                scratch = new double[n];
+            }
+            for (int t = 0; t <= steps; t++) {
+                if (alpha[t] == null) alpha[t] = new double[n];
+            }
+
+            // forward: alpha[t] is the filtered distribution, scale[t] = P(reading t | readings before).
+            Arrays.fill(alpha[0], 1.0 / n);
+            for (int t = 1; t <= steps; t++) {
+                scale[t] = FilterKernels.forward(T, O, alpha[t - 1], sensorReadings[t - 1], alpha[t]);
+                logLikelihood += Math.log(scale[t]);
+            }
+
+            // backward with normalized messages, counting as we go.
+            Arrays.fill(beta, 1);
+            for (int t = steps; t > 0; t--) {
+                double[] a = alpha[t];
+                double[] e = O.getEmission(sensorReadings[t - 1]);
+                int color = SensorModel.colorIndex(sensorReadings[t - 1]);
+                double norm = 0;
+                for (int j = 0; j < n; j++) {
+                    norm += a[j] * beta[j];
+                }
+                if (norm > 0) {
+                    // gamma_t(j) = a[j] beta[j] / norm.
+                    double hit = 0;
+                    for (int j = 0; j < n; j++) {
+                        if (tileColor[j] == color) hit += a[j] * beta[j];
+                    }
+                    hits += hit / norm;
+
+                    // xi_t(i, i) for a chosen stay = alpha_(t-1)(i) stay e(i) beta(i) / (scale_t norm).
+                    double[] before = alpha[t - 1];
+                    double chosen = 0;
+                    for (int i = 0; i < n; i++) {
+                        chosen += before[i] * e[i] * beta[i];
+                    }
+                    stays += stay * chosen / (scale[t] * norm);
+                }
+                readings++;
+                transitions++;
+                FilterKernels.backward(T, O, beta, sensorReadings[t - 1], scratch, nextBeta);
+                FilterKernels.normalize(nextBeta);
+                double[] swap = beta;
+                beta = nextBeta;
+                nextBeta = swap;
+            }
+        }
+
+        void merge(ExpectedCounts other) {
+            hits += other.hits;
+            readings += other.readings;
+            stays += other.stays;
+            transitions += other.transitions;
+            logLikelihood += other.logLikelihood;
+        }
+
+        /**
+         * the M-step.
+         */
+        ModelParameters maximise(ModelParameters current) {
+            double hit = readings > 0 ? hits / readings : current.getSensorHit();
+            double stay = transitions > 0 ? stays / transitions : current.getStayProbability();
+            return ModelParameters.of(Math.min(1, Math.max(0, hit)), Math.min(1, Math.max(0, stay)));
+        }
+    }
+
+    /**
+     * fit the parameters to simulated runs on simple.maz, which use the default sensor and
+     * a stay probability of 0.1.
+     * usage: BaumWelchTrainer [sequences] [steps]
+     */
+    public static void main(String[] args) {
+        int sequenceNumber = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Maze maze = Maze.readFromFile("simple.maz");
+        StateIndex index = StateIndex.of(maze);
+        int[][] moves = {Maze.NORTH, Maze.EAST, Maze.SOUTH, Maze.WEST};
+        ModelParameters truth = new ModelParameters(CompiledModel.SENSOR_HIT, CompiledModel.SENSOR_MISS, 0.1);
+        SplittableRandom random = new SplittableRandom(42);
+        List<char[]> sequences = new ArrayList<>();
+        for (int s = 0; s < sequenceNumber; s++) {
+            int position = random.nextInt(index.size());
+            char[] readings = new char[steps];
+            for (int t = 0; t < steps; t++) {
+                if (!truth.sampleStay(random)) {
+                    int next = index.neighbour(position, moves[random.nextInt(moves.length)]);
+                    if (next >= 0) position = next;
+                }
+                readings[t] = truth.sampleReading(maze.getChar(index.getX(position), index.getY(position)), random);
+            }
+            sequences.add(readings);
+        }
+        BaumWelchTrainer trainer = new BaumWelchTrainer(maze);
+        long start = System.nanoTime();
+        ModelParameters fitted = trainer.train(sequences, ModelParameters.of(0.6, 0.3), 200, 1e-6);
+        System.out.printf("%s after %d iterations, log likelihood %.3f, %.1f ms%n", fitted, trainer.getIterations(),
+                trainer.getLogLikelihood(), (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.IntFunction;
+
+/**
+ * Storage for one distribution per time step, e.g. the filtered or smoothed beliefs of a run.
+ * <p>
+ * Implementations trade precision and memory: DenseHistory keeps doubles, FloatHistory
+ * float32, SparseHistory only the entries above a threshold, and MappedHistory spills
+ * float32 rows to a memory-mapped file so a history can be larger than the heap.
+ */
+public interface BeliefHistory extends Closeable {
+
+    IntFunction<BeliefHistory> DENSE = DenseHistory::new;
+    IntFunction<BeliefHistory> FLOAT = FloatHistory::new;
+    IntFunction<BeliefHistory> MAPPED = stateNumber -> {
+        try {
+            return new MappedHistory(stateNumber);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    };
+
+    /**
+     * @param threshold entries at or below this value are dropped.
+     */
+    static IntFunction<BeliefHistory> sparse(double threshold) {
+        return stateNumber -> new SparseHistory(stateNumber, threshold);
+    }
+
+    /**
+     * @return the length of every stored distribution.
+     */
+    int getStateNumber();
+
+    /**
+     * @return the number of steps stored, one more than the largest step set.
+     */
+    int size();
+
+    /**
+     * store the distribution of step, copying it; steps in between that were never set read as zeros.
+     */
+    void set(int step, double[] belief);
+
+    /**
+     * store the distribution of the next step.
+     */
+    default void append(double[] belief) {
+        set(size(), belief);
+    }
+
+    /**
+     * @param out receives the distribution of step.
+     * @return out
+     */
+    double[] get(int step, double[] out);
+
+    /**
+     * @return the state with the largest probability at step, the first one on ties, 0 when all are zero.
+     */
+    int argMax(int step);
+
+    /**
+     * release the storage, the history must not be used afterwards.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
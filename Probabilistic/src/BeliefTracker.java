@@ -0,0 +1,182 @@
+import java.util.Arrays;
+
+/**
+ * Online filter that takes one observation at a time.
+ * Only the current belief is kept, plus the last lag filtered beliefs and readings
+ * when fixed-lag smoothing is wanted, so memory does not grow with the length of a run.
+ * <p>
+ * The motion model is the random walk of the transition model, it does not depend
+ * on the commanded action; the action is accepted so callers can feed raw robot
+ * messages, and is otherwise ignored.
+ */
+public class BeliefTracker implements LocalisationFilter {
+    private final TransitionModel T;
+    private final SensorModel O;
+    private final double[] prior;
+    private final int lag;
+
+    private double[] belief;
+    private double[] next;
+    private long steps;
+    private InferenceMetrics metrics = InferenceMetrics.NOOP;
+
+    // ring buffers for fixed-lag smoothing, slot (step % (lag + 1)).
+    private final double[][] history;
+    private final char[] readings;
+    private final double[] message;
+    private final double[] nextMessage;
+    private final double[] scratch;
+
+    /**
+     * @param T     transition model.
+     * @param O     sensor model.
+     * @param prior initial distribution, copied.
+     * @param lag   window of the fixed-lag smoother, 0 to only filter.
+     */
+    public BeliefTracker(TransitionModel T, SensorModel O, double[] prior, int lag) {
+        if (lag < 0) throw new IllegalArgumentException("lag must not be negative");
+        if (prior.length != T.getStateNumber()) throw new IllegalArgumentException("prior has wrong length");
+        this.T = T;
+        this.O = O;
+        this.prior = prior.clone();
+        this.lag = lag;
+        int n = prior.length;
+        belief = new double[n];
+        next = new double[n];
+        if (lag > 0) {
+            history = new double[lag + 1][n];
+            readings = new char[lag + 1];
+            message = new double[n];
+            nextMessage = new double[n];
+            scratch = new double[n];
+        } else {
+            history = null;
+            readings = null;
+            message = null;
+            nextMessage = null;
+            scratch = null;
+        }
+        reset();
+    }
+
+    /**
+     * go back to the prior, forgetting all observations.
+     */
+    @Override
+    public void reset() {
+        System.arraycopy(prior, 0, belief, 0, prior.length);
+        steps = 0;
+        if (history != null) {
+            System.arraycopy(prior, 0, history[0], 0, prior.length);
+        }
+    }
+
+    /**
+     * take one observation and update the filtered belief.
+     *
+     * @param action the motion commanded before the reading, see the class comment.
+     * @param color  the color given by sensor after moving.
+     * @return the current filtered belief, owned by the tracker and overwritten by the next call.
+     */
+    public double[] observe(int[] action, char color) {
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        double sum = FilterKernels.forward(T, O, belief, color, next);
+        double[] swap = belief;
+        belief = next;
+        next = swap;
+        steps++;
+        if (history != null) {
+            int slot = (int) (steps % (lag + 1));
+            System.arraycopy(belief, 0, history[slot], 0, belief.length);
+            readings[slot] = color;
+        }
+        if (metrics.isEnabled()) {
+            metrics.recordTime(InferenceMetrics.FORWARD, System.nanoTime() - start);
+            metrics.increment(InferenceMetrics.STEPS, 1);
+            metrics.increment(InferenceMetrics.NONZERO_STATES, InferenceMetrics.countNonzero(belief));
+            if (sum == 0) metrics.increment(InferenceMetrics.UNDERFLOWS, 1);
+        }
+        return belief;
+    }
+
+    @Override
+    public void update(int[] action, char color) {
+        observe(action, color);
+    }
+
+    /**
+     * @return the current filtered belief, owned by the tracker.
+     */
+    public double[] getBelief() {
+        return belief;
+    }
+
+    @Override
+    public double[] getBelief(double[] out) {
+        System.arraycopy(belief, 0, out, 0, belief.length);
+        return out;
+    }
+
+    @Override
+    public int getEstimate() {
+        int maxIndex = 0;
+        for (int i = 1; i < belief.length; i++) {
+            if (belief[i] > belief[maxIndex]) maxIndex = i;
+        }
+        return maxIndex;
+    }
+
+    /**
+     * @return the number of observations taken since the last reset.
+     */
+    @Override
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @param metrics sink for step timings and counters, NOOP by default.
+     */
+    public void setMetrics(InferenceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getLag() {
+        return lag;
+    }
+
+    /**
+     * @return the step getSmoothed refers to, lag steps behind the newest one (never before step 0).
+     */
+    public long getSmoothedStep() {
+        return Math.max(0, steps - lag);
+    }
+
+    /**
+     * fixed-lag smoothing: the distribution of step getSmoothedStep() given every reading so far.
+     * Costs lag backward steps, the backward message is normalized on the way so it cannot underflow.
+     *
+     * @param out receives the smoothed distribution.
+     * @return out
+     */
+    public double[] getSmoothed(double[] out) {
+        if (history == null) {
+            System.arraycopy(belief, 0, out, 0, belief.length);
+            return out;
+        }
+        long target = getSmoothedStep();
+        double[] b = message;
+        double[] nb = nextMessage;
+        Arrays.fill(b, 1);
+        for (long k = steps; k > target; k--) {
+            FilterKernels.backward(T, O, b, readings[(int) (k % (lag + 1))], scratch, nb);
+            FilterKernels.normalize(nb);
+            metrics.increment(InferenceMetrics.RENORMALISATIONS, 1);
+            double[] swap = b;
+            b = nb;
+            nb = swap;
+        }
+        FilterKernels.multiplyNormalize(history[(int) (target % (lag + 1))], b, out);
+        return out;
+    }
+}
@@ -0,0 +1,486 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The hidden markov model of one maze: state index, transition model and sensor model.
+ * <p>
+ * A compiled model is immutable once built and keeps no per run state, every
+ * inference method works on its own buffers, so one instance can be shared by
+ * any number of threads localising different robots on the same maze.
+ */
+public class CompiledModel {
+    // sensor parameters: probability of reading the true color, and each of the other three.
+    public static final double SENSOR_HIT = 0.88;
+    public static final double SENSOR_MISS = 0.04;
+
+    private final Maze maze;
+    private final int tileNumber;
+    private final StateIndex index;
+    private final TransitionModel T;
+    private final SensorModel O;
+    private final ModelParameters parameters;
+    private final InferenceMetrics metrics;
+    private volatile ViterbiDecoder viterbiDecoder; // built on first use, it holds log copies of both models.
+
+    CompiledModel(Maze maze, StateIndex index, TransitionModel T, SensorModel O) {
+        this(maze, index, T, O, ModelParameters.DEFAULT, InferenceMetrics.NOOP);
+    }
+
+    private CompiledModel(Maze maze, StateIndex index, TransitionModel T, SensorModel O,
+                          ModelParameters parameters, InferenceMetrics metrics) {
+        if (T.getStateNumber() != index.size() || O.getStateNumber() != index.size()) {
+            throw new IllegalArgumentException("models do not match the maze");
+        }
+        this.maze = maze;
+        this.tileNumber = index.size();
+        this.index = index;
+        this.T = T;
+        this.O = O;
+        this.parameters = parameters;
+        this.metrics = metrics;
+    }
+
+    /**
+     * do the follow things:
+     * 1. count the number of tiles.
+     * 2. generate the transition model and sensor model.
+     *
+     * @param maze the maze, must not be changed afterwards.
+     * @return the compiled model.
+     */
+    public static CompiledModel compile(Maze maze) {
+        return compile(maze, InferenceMetrics.NOOP);
+    }
+
+    /**
+     * compile the maze, timing the build, the returned model reports to metrics.
+     */
+    public static CompiledModel compile(Maze maze, InferenceMetrics metrics) {
+        return compile(maze, ModelParameters.DEFAULT, metrics);
+    }
+
+    /**
+     * compile the maze with other sensor and motion parameters, e.g. fitted by BaumWelchTrainer.
+     */
+    public static CompiledModel compile(Maze maze, ModelParameters parameters, InferenceMetrics metrics) {
+        if (maze == null) throw new RuntimeException("maze is null");
+        long start = System.nanoTime();
+        StateIndex index = StateIndex.of(maze);
+        int indexNumber = index.size();
+
+        //generate transition model, only the tile itself and its neighbours can be reached:
+        int[][] moves = {Maze.NO_MOVE, Maze.NORTH, Maze.EAST, Maze.SOUTH, Maze.WEST};
+        int[] rowStart = new int[indexNumber + 1];
+        int[] column = new int[indexNumber * moves.length];
+        double[] probability = new double[indexNumber * moves.length];
+        int entries = 0;
+        for (int i = 0; i < indexNumber; i++) {
+            int walls = countWalls(maze, index.getX(i), index.getY(i));
+            for (int[] move : moves) {
+                int j = index.neighbour(i, move);
+                if (j < 0) continue;
+                double p = getTransitionProbability(index, i, j, walls, parameters);
+                if (p == 0) continue;
+                column[entries] = j;
+                probability[entries] = p;
+                entries++;
+            }
+            rowStart[i + 1] = entries;
+        }
+        TransitionModel T = new TransitionModel(indexNumber, rowStart, Arrays.copyOf(column, entries), Arrays.copyOf(probability, entries));
+
+        //generate sensor model for colors red, green, blue, yellow:
+        double[][] emission = new double[SensorModel.COLORS.length][indexNumber];
+        for (int i = 0; i < indexNumber; i++) {
+            for (int c = 0; c < SensorModel.COLORS.length; c++) {
+                emission[c][i] = getSensorProbability(maze, index, i, SensorModel.COLORS[c], parameters);
+            }
+        }
+        CompiledModel model = new CompiledModel(maze, index, T, new SensorModel(emission), parameters, metrics);
+        metrics.recordTime(InferenceMetrics.BUILD, System.nanoTime() - start);
+        metrics.increment(InferenceMetrics.ALLOCATED_BYTES, model.getByteSize());
+        return model;
+    }
+
+    /**
+     * @return the approximate heap size of the state index and both models.
+     */
+    public long getByteSize() {
+        return 3L * maze.width * maze.height * Integer.BYTES
+                + TransitionModel.byteSize(tileNumber, T.getEntryNumber()) + SensorModel.byteSize(tileNumber);
+    }
+
+    /**
+     * @return a model sharing every array with this one, reporting to metrics.
+     */
+    public CompiledModel withMetrics(InferenceMetrics metrics) {
+        return new CompiledModel(maze, index, T, O, parameters, metrics);
+    }
+
+    public ModelParameters getParameters() {
+        return parameters;
+    }
+
+    public InferenceMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Maze getMaze() {
+        return maze;
+    }
+
+    public int getTileNumber() {
+        return tileNumber;
+    }
+
+    /**
+     * @return the numbering of the tiles.
+     */
+    public StateIndex getIndex() {
+        return index;
+    }
+
+    public TransitionModel getTransitionModel() {
+        return T;
+    }
+
+    public SensorModel getSensorModel() {
+        return O;
+    }
+
+    /**
+     * @return a new uniform distribution over all tiles.
+     */
+    public double[] uniformPrior() {
+        double[] prior = new double[tileNumber];
+        Arrays.fill(prior, 1.0 / tileNumber);
+        return prior;
+    }
+
+    /**
+     * @param lag window of the fixed-lag smoother, 0 to only filter.
+     * @return a tracker starting from the uniform distribution.
+     */
+    public BeliefTracker newTracker(int lag) {
+        BeliefTracker tracker = new BeliefTracker(T, O, uniformPrior(), lag);
+        tracker.setMetrics(metrics);
+        return tracker;
+    }
+
+    /**
+     * @param epsilon beliefs at or below epsilon are dropped, see ActiveSupportFilter.
+     * @return a filter over the active support, starting from the uniform distribution.
+     */
+    public ActiveSupportFilter newActiveSupportFilter(double epsilon) {
+        ActiveSupportFilter filter = new ActiveSupportFilter(T, O, uniformPrior(), epsilon);
+        filter.setMetrics(metrics);
+        return filter;
+    }
+
+    /**
+     * filter a whole sequence.
+     *
+     * @param prior          the distribution of step 0.
+     * @param sensorReadings the color sequence given by sensor.
+     * @return the filtered distribution of steps 0 to sensorReadings.length.
+     */
+    public double[][] filter(double[] prior, char[] sensorReadings) {
+        double[][] distribution = new double[sensorReadings.length + 1][];
+        distribution[0] = prior;
+        for (int i = 0; i < sensorReadings.length; i++) {
+            distribution[i + 1] = new double[tileNumber];
+            forward(distribution[i], sensorReadings[i], distribution[i + 1]);
+        }
+        metrics.increment(InferenceMetrics.ALLOCATED_BYTES, (long) sensorReadings.length * tileNumber * Double.BYTES);
+        return distribution;
+    }
+
+    /**
+     * filter a whole sequence into a history.
+     *
+     * @param prior          the distribution of step 0.
+     * @param sensorReadings the color sequence given by sensor.
+     * @param out            receives the filtered distribution of steps 0 to sensorReadings.length after its current steps.
+     * @return the normalizers of the steps, scale[t] = P(reading t | readings before) for t >= 1, scale[0] = 1.
+     * They come from the exact messages, even when out keeps the distributions lossily.
+     */
+    public double[] filter(double[] prior, char[] sensorReadings, BeliefHistory out) {
+        double[] scale = new double[sensorReadings.length + 1];
+        scale[0] = 1;
+        double[] belief = prior.clone();
+        double[] next = new double[tileNumber];
+        out.append(belief);
+        for (int t = 0; t < sensorReadings.length; t++) {
+            scale[t + 1] = forward(belief, sensorReadings[t], next);
+            out.append(next);
+            double[] swap = belief;
+            belief = next;
+            next = swap;
+        }
+        return scale;
+    }
+
+    /**
+     * the forward-backward algorithm described in the book.
+     *
+     * @param prior          the prior probability
+     * @param sensorReadings the color sequence given by sensor.
+     * @return the distribution
+     */
+    public double[][] forwardBackward(double[] prior, char[] sensorReadings) {
+        DenseHistory smoothed = new DenseHistory(tileNumber);
+        forwardBackward(prior, sensorReadings, new DenseHistory(tileNumber), smoothed);
+        return smoothed.toArray();
+    }
+
+    /**
+     * the forward-backward algorithm, reading the forward pass from and writing the result to histories.
+     *
+     * @param prior          the prior probability, summing to 1.
+     * @param sensorReadings the color sequence given by sensor.
+     * @param filtered       an empty history, filled by filter.
+     * @param smoothed       receives the smoothed distribution of the same steps.
+     * @return the log likelihood of the readings, negative infinity when they are impossible.
+     */
+    public double forwardBackward(double[] prior, char[] sensorReadings, BeliefHistory filtered, BeliefHistory smoothed) {
+        if (filtered.size() != 0) throw new IllegalArgumentException("filtered history is not empty, pass the scales of its steps");
+        double[] scale = filter(prior, sensorReadings, filtered);
+        return forwardBackward(sensorReadings, filtered, scale, smoothed);
+    }
+
+    /**
+     * the backward pass of the forward-backward algorithm over a filter already run.
+     * <p>
+     * The backward message is scaled by the same factor as the forward step, beta_(t-1) =
+     * T O(t) beta_t / c_t with c_t = P(reading t | readings before), so it stays of order 1 on
+     * runs of any length. The c_t come from the forward pass, so a lossy filtered history only
+     * affects the smoothed rows, not the backward messages or the likelihood.
+     *
+     * @param sensorReadings the color sequence given by sensor.
+     * @param filtered       the filtered distribution of steps 0 to sensorReadings.length.
+     * @param scale          the normalizers of the forward steps, as returned by filter.
+     * @param smoothed       receives the smoothed distribution of the same steps.
+     * @return the log likelihood of the readings, negative infinity when they are impossible.
+     */
+    public double forwardBackward(char[] sensorReadings, BeliefHistory filtered, double[] scale, BeliefHistory smoothed) {
+        long start = System.nanoTime();
+        if (filtered.size() != sensorReadings.length + 1) {
+            throw new IllegalArgumentException("filtered history has " + filtered.size() + " steps, expected " + (sensorReadings.length + 1));
+        }
+        if (scale.length != sensorReadings.length + 1) throw new IllegalArgumentException("scales have wrong length");
+        int steps = sensorReadings.length;
+        double[] forwardMessage = new double[tileNumber];
+        double[] backwardMessage = new double[tileNumber];
+        double[] nextMessage = new double[tileNumber];
+        double[] scratch = new double[tileNumber];
+        double[] row = new double[tileNumber];
+        double logLikelihood = 0;
+
+        //initial backward msg:
+        Arrays.fill(backwardMessage, 1);
+
+        for (int i = steps; i > 0; i--) {
+            smoothed.set(i, smooth(filtered.get(i, forwardMessage), backwardMessage, row));
+            FilterKernels.backward(T, O, backwardMessage, sensorReadings[i - 1], scratch, nextMessage);
+            if (scale[i] > 0) {
+                logLikelihood += Math.log(scale[i]);
+                double inverse = 1.0 / scale[i];
+                for (int j = 0; j < tileNumber; j++) {
+                    nextMessage[j] *= inverse;
+                }
+            } else {
+                // an impossible reading, keep the message usable for the steps before it.
+                logLikelihood = Double.NEGATIVE_INFINITY;
+                FilterKernels.normalize(nextMessage);
+            }
+            double[] swap = backwardMessage;
+            backwardMessage = nextMessage;
+            nextMessage = swap;
+        }
+        smoothed.set(0, smooth(filtered.get(0, forwardMessage), backwardMessage, row));
+        metrics.recordTime(InferenceMetrics.FORWARD_BACKWARD, System.nanoTime() - start);
+        metrics.increment(InferenceMetrics.ALLOCATED_BYTES, 5L * tileNumber * Double.BYTES);
+        return logLikelihood;
+    }
+
+    /**
+     * out = normalized forward * backward. When a lossy history dropped every state the backward
+     * message supports, the forward message alone, and when it dropped the whole row (a spread
+     * belief below the threshold everywhere), the backward message alone.
+     */
+    private static double[] smooth(double[] forwardMessage, double[] backwardMessage, double[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = forwardMessage[i] * backwardMessage[i];
+        }
+        if (FilterKernels.normalize(out) > 0) return out;
+        System.arraycopy(forwardMessage, 0, out, 0, out.length);
+        if (FilterKernels.normalize(out) > 0) return out;
+        System.arraycopy(backwardMessage, 0, out, 0, out.length);
+        FilterKernels.normalize(out);
+        return out;
+    }
+
+    /**
+     * viterbi algorithm described in the book, computed in log space by ViterbiDecoder.
+     *
+     * @param prior          the initial probability vector.
+     * @param sensorReadings the color sequence read from sensor.
+     * @return the most likely path, the state of every step starting at step 0.
+     */
+    public int[] viterbi(double[] prior, char[] sensorReadings) {
+        long start = System.nanoTime();
+        int[] path = viterbiDecoder().decode(prior, sensorReadings);
+        metrics.recordTime(InferenceMetrics.VITERBI, System.nanoTime() - start);
+        return path;
+    }
+
+    /**
+     * @param maxLag force a commit once this many steps are pending, 0 to only commit on coalescence.
+     * @return a streaming viterbi decoder starting from the uniform distribution.
+     */
+    public OnlineViterbi newOnlineViterbi(int maxLag) {
+        return new OnlineViterbi(viterbiDecoder(), uniformPrior(), maxLag);
+    }
+
+    private ViterbiDecoder viterbiDecoder() {
+        ViterbiDecoder decoder = viterbiDecoder;
+        if (decoder == null) {
+            // two threads may both build one, either result is the same.
+            decoder = new ViterbiDecoder(T, O);
+            viterbiDecoder = decoder;
+        }
+        return decoder;
+    }
+
+    /**
+     * one filtering step, timed and counted when metrics are enabled.
+     *
+     * @param prior the distribution of the previous step.
+     * @param color the color given by sensor in this step.
+     * @param out   receives the new distribution, must not be prior itself.
+     * @return P(color | prior), the normalizer of the step.
+     */
+    public double forward(double[] prior, char color, double[] out) {
+        if (!metrics.isEnabled()) {
+            return FilterKernels.forward(T, O, prior, color, out);
+        }
+        long start = System.nanoTime();
+        double sum = FilterKernels.forward(T, O, prior, color, out);
+        metrics.recordTime(InferenceMetrics.FORWARD, System.nanoTime() - start);
+        metrics.increment(InferenceMetrics.STEPS, 1);
+        metrics.increment(InferenceMetrics.NONZERO_STATES, InferenceMetrics.countNonzero(out));
+        if (sum == 0) metrics.increment(InferenceMetrics.UNDERFLOWS, 1);
+        return sum;
+    }
+
+    /**
+     * Choose the largest probability from the distribution at each time step
+     *
+     * @param distribution the probability distribution
+     * @return the state with the largest probability at each step.
+     */
+    public static int[] getMostLikelyStates(double[][] distribution) {
+        int[] states = new int[distribution.length];
+        for (int i = 0; i < distribution.length; i++) {
+            int maxIndex = 0;
+            double maxValue = 0;
+            for (int j = 0; j < distribution[i].length; j++) {
+                if (distribution[i][j] > maxValue) {
+                    maxValue = distribution[i][j];
+                    maxIndex = j;
+                }
+            }
+            states[i] = maxIndex;
+        }
+        return states;
+    }
+
+    /**
+     * @return the state with the largest probability at each step of history.
+     */
+    public static int[] getMostLikelyStates(BeliefHistory history) {
+        int[] states = new int[history.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = history.argMax(i);
+        }
+        return states;
+    }
+
+    /**
+     * filter, smooth and decode one sequence from the uniform distribution.
+     *
+     * @param sensorReadings the color sequence read from sensor.
+     * @return the results of the run.
+     */
+    public RunResult analyse(char[] sensorReadings) {
+        double[] prior = uniformPrior();
+        DenseHistory filtered = new DenseHistory(tileNumber);
+        DenseHistory smoothed = new DenseHistory(tileNumber);
+        // one forward pass, reused by the backward pass.
+        forwardBackward(sensorReadings, filtered, filter(prior, sensorReadings, filtered), smoothed);
+        double[][] smoothedRows = smoothed.toArray();
+        return new RunResult(filtered.toArray(), smoothedRows, getMostLikelyStates(smoothedRows), viterbi(prior, sensorReadings));
+    }
+
+    /**
+     * simulate the robot's sensor on a tile with the default parameters: the true color with
+     * SENSOR_HIT, each other color with SENSOR_MISS. A fitted model samples through
+     * getParameters().sampleReading instead.
+     *
+     * @param trueColor the color of the tile, one of SensorModel.COLORS.
+     * @param random    source of the noise.
+     * @return the reading.
+     */
+    public static char sampleReading(char trueColor, SplittableRandom random) {
+        return ModelParameters.DEFAULT.sampleReading(trueColor, random);
+    }
+
+    /**
+     * count the walls (or map borders) around a tile, the robot stays in place when it runs into one.
+     */
+    private static int countWalls(Maze maze, int x, int y) {
+        int walls = 0;
+        if (!maze.isLegal(x + 1, y)) walls++;
+        if (!maze.isLegal(x - 1, y)) walls++;
+        if (!maze.isLegal(x, y + 1)) walls++;
+        if (!maze.isLegal(x, y - 1)) walls++;
+        return walls;
+    }
+
+    /**
+     * calculate the transition probability from s1 to s2.
+     *
+     * @param s1    state 1
+     * @param s2    state 2
+     * @param walls the walls around s1, see countWalls.
+     * @return probability
+     */
+    private static double getTransitionProbability(StateIndex index, int s1, int s2, int walls, ModelParameters parameters) {
+        int x1 = index.getX(s1),
+                y1 = index.getY(s1),
+                x2 = index.getX(s2),
+                y2 = index.getY(s2);
+
+        double move = parameters.getMoveProbability();
+        if (Math.abs(x2 - x1) + Math.abs(y2 - y1) == 1) return move;
+        if (s1 == s2) return parameters.getStayProbability() + walls * move;
+        return 0;
+    }
+
+    /**
+     * calculate the sensor probability
+     *
+     * @param state
+     * @param color
+     * @return
+     */
+    private static double getSensorProbability(Maze maze, StateIndex index, int state, char color, ModelParameters parameters) {
+        int x = index.getX(state);
+        int y = index.getY(state);
+        char trueColor = maze.getChar(x, y);
+        if (trueColor == color) {
+            return parameters.getSensorHit();
+        }
+        return parameters.getSensorMiss();
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Distributions as CSV: a header "distribution,step,x:y,..." per table, then one line
+ * per step. Values are written with Double.toString, so they read back exactly.
+ */
+public class CsvReportSink implements ReportSink {
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder();
+    private String title;
+
+    public CsvReportSink(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16));
+    }
+
+    public CsvReportSink(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void begin(String title, StateIndex index) throws IOException {
+        this.title = title;
+        line.setLength(0);
+        line.append("distribution,step");
+        for (int i = 0; i < index.size(); i++) {
+            line.append(',').append(index.getX(i)).append(':').append(index.getY(i));
+        }
+        line.append('\n');
+        out.append(line);
+    }
+
+    @Override
+    public void row(int step, double[] distribution) throws IOException {
+        line.setLength(0);
+        line.append(title).append(',').append(step);
+        for (double d : distribution) {
+            line.append(',').append(d);
+        }
+        line.append('\n');
+        out.append(line);
+    }
+
+    @Override
+    public void end() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Full double precision rows, the same as keeping a double[][] per run.
+ */
+public class DenseHistory implements BeliefHistory {
+    private final int stateNumber;
+    private final List<double[]> rows = new ArrayList<>();
+
+    public DenseHistory(int stateNumber) {
+        this.stateNumber = stateNumber;
+    }
+
+    @Override
+    public int getStateNumber() {
+        return stateNumber;
+    }
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    @Override
+    public void set(int step, double[] belief) {
+        while (rows.size() <= step) rows.add(null);
+        double[] row = rows.get(step);
+        if (row == null) {
+            rows.set(step, belief.clone());
+        } else {
+            System.arraycopy(belief, 0, row, 0, stateNumber);
+        }
+    }
+
+    @Override
+    public double[] get(int step, double[] out) {
+        double[] row = rows.get(step);
+        if (row == null) {
+            Arrays.fill(out, 0);
+        } else {
+            System.arraycopy(row, 0, out, 0, stateNumber);
+        }
+        return out;
+    }
+
+    @Override
+    public int argMax(int step) {
+        double[] row = rows.get(step);
+        int maxIndex = 0;
+        double maxValue = 0;
+        for (int j = 0; row != null && j < stateNumber; j++) {
+            if (row[j] > maxValue) {
+                maxValue = row[j];
+                maxIndex = j;
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * @return the rows themselves, steps never set are all zeros.
+     */
+    public double[][] toArray() {
+        double[][] result = new double[rows.size()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = rows.get(i) != null ? rows.get(i) : new double[stateNumber];
+        }
+        return result;
+    }
+}
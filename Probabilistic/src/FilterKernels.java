@@ -0,0 +1,76 @@
+/**
+ * Allocation free kernels of the filtering and smoothing recursions.
+ * Every method writes into buffers given by the caller, so a long observation
+ * sequence can be processed with a fixed set of arrays.
+ */
+public class FilterKernels {
+
+    /**
+     * one filtering step: out = normalize(O(color) * T' * prior).
+     *
+     * @param prior the distribution of the previous step.
+     * @param out   receives the new distribution, must not be prior itself.
+     * @return the normalizing constant, P(color | readings so far).
+     */
+    public static double forward(TransitionModel T, SensorModel O, double[] prior, char color, double[] out) {
+        T.predict(prior, out);
+        return update(O.getEmission(color), out);
+    }
+
+    /**
+     * one backward step: out = T * O(color) * message.
+     *
+     * @param message the backward message of the next step.
+     * @param scratch a buffer of the same length used for the weighted message.
+     * @param out     receives the new message, must not be message or scratch.
+     */
+    public static void backward(TransitionModel T, SensorModel O, double[] message, char color, double[] scratch, double[] out) {
+        double[] e = O.getEmission(color);
+        for (int i = 0; i < message.length; i++) {
+            scratch[i] = e[i] * message[i];
+        }
+        T.propagateBackward(scratch, out);
+    }
+
+    /**
+     * weight the predicted distribution by the emission vector and normalize in place.
+     *
+     * @return the sum before normalizing.
+     */
+    public static double update(double[] emission, double[] belief) {
+        for (int i = 0; i < belief.length; i++) {
+            belief[i] *= emission[i];
+        }
+        return normalize(belief);
+    }
+
+    /**
+     * normalize in place, a vector summing to zero is left unchanged.
+     *
+     * @return the sum before normalizing.
+     */
+    public static double normalize(double[] v) {
+        double sum = 0;
+        for (double d : v) {
+            sum += d;
+        }
+        if (sum == 0 || Double.isNaN(sum)) {
+            return sum;
+        }
+        double inverse = 1.0 / sum;
+        for (int i = 0; i < v.length; i++) {
+            v[i] *= inverse;
+        }
+        return sum;
+    }
+
+    /**
+     * out = normalize(a * b), element wise.
+     */
+    public static void multiplyNormalize(double[] a, double[] b, double[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = a[i] * b[i];
+        }
+        normalize(out);
+    }
+}
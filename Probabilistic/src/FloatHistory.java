@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows kept as float32, half the memory of DenseHistory and about 7 significant digits.
+ */
+public class FloatHistory implements BeliefHistory {
+    private final int stateNumber;
+    private final List<float[]> rows = new ArrayList<>();
+
+    public FloatHistory(int stateNumber) {
+        this.stateNumber = stateNumber;
+    }
+
+    @Override
+    public int getStateNumber() {
+        return stateNumber;
+    }
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    @Override
+    public void set(int step, double[] belief) {
+        while (rows.size() <= step) rows.add(null);
+        float[] row = rows.get(step);
+        if (row == null) {
+            row = new float[stateNumber];
+            rows.set(step, row);
+        }
+        for (int j = 0; j < stateNumber; j++) {
+            row[j] = (float) belief[j];
+        }
+    }
+
+    @Override
+    public double[] get(int step, double[] out) {
+        float[] row = rows.get(step);
+        if (row == null) {
+            Arrays.fill(out, 0);
+            return out;
+        }
+        for (int j = 0; j < stateNumber; j++) {
+            out[j] = row[j];
+        }
+        return out;
+    }
+
+    @Override
+    public int argMax(int step) {
+        float[] row = rows.get(step);
+        int maxIndex = 0;
+        float maxValue = 0;
+        for (int j = 0; row != null && j < stateNumber; j++) {
+            if (row[j] > maxValue) {
+                maxValue = row[j];
+                maxIndex = j;
+            }
+        }
+        return maxIndex;
+    }
+}
@@ -0,0 +1,177 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The transition model applied as the 5 point stencil it is, on a belief laid out like the maze.
+ * <p>
+ * The grid is row-major with a ring of wall cells around the maze, cell (x, y) of the maze at
+ * (y + 1) * stride + x + 1 with stride = width + 2, so every tile has four neighbours in the
+ * array and the inner loop needs no bounds checks. A tile moves to each legal neighbour with
+ * the same probability (0.25 by default) and stays with the rest, and the stencil is symmetric,
+ * so one pass
+ * <pre>
+ *   out[c] = floor[c] * (stay[c] * b[c] + move * (b[c - 1] + b[c + 1] + b[c - stride] + b[c + stride]))
+ * </pre>
+ * serves both the prediction T' b and the backward propagation T m, as long as the input is
+ * zero on walls (which the floor mask guarantees for every output). Rows are walked in
+ * memory order and split over a fork-join pool for large mazes.
+ */
+public class GridStencil {
+    private static final int PARALLEL_CELLS = 1 << 16; // below this one thread is faster.
+    private static final int BAND_ROWS = 16;           // rows per parallel task.
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final double move;          // probability of moving to one legal neighbour.
+    private final StateIndex index;
+    private final double[] floor;       // 1 on tiles, 0 on walls and the border ring.
+    private final double[] stay;        // probability of staying on each tile.
+    private final double[][] emission;  // [color index][cell], 0 on walls.
+    private final ForkJoinPool pool;
+
+    /**
+     * stencil of a compiled model, large grids run on the common fork-join pool.
+     */
+    public GridStencil(CompiledModel model) {
+        this(model, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool threads for the row bands of large grids.
+     */
+    public GridStencil(CompiledModel model, ForkJoinPool pool) {
+        this.index = model.getIndex();
+        this.width = index.getWidth();
+        this.height = index.getHeight();
+        this.stride = width + 2;
+        this.pool = pool;
+        this.move = model.getParameters().getMoveProbability();
+        int cells = stride * (height + 2);
+        floor = new double[cells];
+        stay = new double[cells];
+        emission = new double[SensorModel.COLORS.length][cells];
+        TransitionModel T = model.getTransitionModel();
+        SensorModel O = model.getSensorModel();
+        for (int state = 0; state < index.size(); state++) {
+            int cell = cellOf(state);
+            floor[cell] = 1;
+            stay[cell] = T.getProbability(state, state);
+            for (int c = 0; c < SensorModel.COLORS.length; c++) {
+                emission[c][cell] = O.getProbability(state, SensorModel.COLORS[c]);
+            }
+        }
+    }
+
+    /**
+     * @return the length of a grid, including the border ring.
+     */
+    public int getCellNumber() {
+        return floor.length;
+    }
+
+    /**
+     * @return the position of state in a grid.
+     */
+    public int cellOf(int state) {
+        return (index.getY(state) + 1) * stride + index.getX(state) + 1;
+    }
+
+    /**
+     * @param belief one probability per state.
+     * @param grid   receives the belief laid out like the maze, zero on walls.
+     * @return grid
+     */
+    public double[] toGrid(double[] belief, double[] grid) {
+        Arrays.fill(grid, 0);
+        for (int state = 0; state < belief.length; state++) {
+            grid[cellOf(state)] = belief[state];
+        }
+        return grid;
+    }
+
+    /**
+     * @param grid   a belief laid out like the maze.
+     * @param belief receives one probability per state.
+     * @return belief
+     */
+    public double[] fromGrid(double[] grid, double[] belief) {
+        for (int state = 0; state < belief.length; state++) {
+            belief[state] = grid[cellOf(state)];
+        }
+        return belief;
+    }
+
+    /**
+     * one step of prediction (or backward propagation, the stencil is symmetric).
+     *
+     * @param grid a belief grid, zero on walls.
+     * @param out  receives the result, must not be grid itself; its border ring must be zero,
+     *             as in a new array or one filled by toGrid.
+     */
+    public void predict(double[] grid, double[] out) {
+        apply(grid, null, out);
+    }
+
+    /**
+     * one filtering step on the grid: out = normalize(O(color) * T' * grid).
+     *
+     * @return the normalizing constant, P(color | readings so far).
+     */
+    public double forward(double[] grid, char color, double[] out) {
+        double sum = apply(grid, emission[SensorModel.colorIndex(color)], out);
+        if (sum == 0 || Double.isNaN(sum)) return sum;
+        double inverse = 1.0 / sum;
+        for (int c = 0; c < out.length; c++) {
+            out[c] *= inverse;
+        }
+        return sum;
+    }
+
+    /**
+     * apply the stencil to every inner row, weighted by e when given.
+     *
+     * @return the sum of out.
+     */
+    private double apply(double[] grid, double[] e, double[] out) {
+        int cells = width * height;
+        if (cells < PARALLEL_CELLS || pool.getParallelism() == 1) {
+            return rows(grid, e, out, 1, height + 1);
+        }
+        int bands = (height + BAND_ROWS - 1) / BAND_ROWS;
+        // the band sums are added in a fixed order, the result does not depend on scheduling.
+        double[] sums = PoolTasks.runIn(pool, () -> IntStream.range(0, bands).parallel()
+                .mapToDouble(b -> rows(grid, e, out, 1 + b * BAND_ROWS, 1 + Math.min(height, (b + 1) * BAND_ROWS)))
+                .toArray());
+        double sum = 0;
+        for (double s : sums) {
+            sum += s;
+        }
+        return sum;
+    }
+
+    /**
+     * the stencil on grid rows [from, to), the border ring of out is left zero.
+     */
+    private double rows(double[] grid, double[] e, double[] out, int from, int to) {
+        double sum = 0;
+        for (int y = from; y < to; y++) {
+            int start = y * stride + 1;
+            int end = start + width;
+            for (int c = start; c < end; c++) {
+                out[c] = floor[c] * (stay[c] * grid[c]
+                        + move * (grid[c - 1] + grid[c + 1] + grid[c - stride] + grid[c + stride]));
+            }
+            if (e != null) {
+                for (int c = start; c < end; c++) {
+                    out[c] *= e[c];
+                }
+            }
+            for (int c = start; c < end; c++) {
+                sum += out[c];
+            }
+        }
+        return sum;
+    }
+}
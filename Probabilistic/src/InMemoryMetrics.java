@@ -0,0 +1,135 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics kept in memory: a LongAdder per counter and a log-linear latency histogram
+ * per stage (8 sub buckets per power of two, so percentiles are within 12.5%).
+ * Recording is lock free and allocation free once a name has been seen.
+ */
+public class InMemoryMetrics implements InferenceMetrics {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordTime(String stage, long nanos) {
+        timers.computeIfAbsent(stage, s -> new Histogram()).record(nanos);
+    }
+
+    @Override
+    public void increment(String counter, long delta) {
+        counters.computeIfAbsent(counter, c -> new LongAdder()).add(delta);
+    }
+
+    public long getCounter(String counter) {
+        LongAdder adder = counters.get(counter);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * @return how often stage was timed.
+     */
+    public long getCount(String stage) {
+        Histogram histogram = timers.get(stage);
+        return histogram == null ? 0 : histogram.count.sum();
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99.
+     * @return the latency of stage at quantile in nanoseconds, 0 when never timed.
+     */
+    public long getPercentile(String stage, double quantile) {
+        Histogram histogram = timers.get(stage);
+        return histogram == null ? 0 : histogram.percentile(quantile);
+    }
+
+    public double getMean(String stage) {
+        Histogram histogram = timers.get(stage);
+        if (histogram == null) return 0;
+        long count = histogram.count.sum();
+        return count == 0 ? 0 : (double) histogram.total.sum() / count;
+    }
+
+    public long getMax(String stage) {
+        Histogram histogram = timers.get(stage);
+        return histogram == null ? 0 : histogram.max.get();
+    }
+
+    public void clear() {
+        counters.clear();
+        timers.clear();
+    }
+
+    /**
+     * @return one line per stage with count, mean and percentiles in microseconds, then the counters.
+     */
+    public String report() {
+        StringBuilder s = new StringBuilder();
+        for (String stage : new TreeMap<>(timers).keySet()) {
+            s.append(String.format("%-18s n=%-9d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus%n",
+                    stage, getCount(stage), getMean(stage) / 1e3, getPercentile(stage, 0.5) / 1e3,
+                    getPercentile(stage, 0.9) / 1e3, getPercentile(stage, 0.99) / 1e3, getMax(stage) / 1e3));
+        }
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+            s.append(String.format("%-18s %d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        return s.toString();
+    }
+
+    @Override
+    public String toString() {
+        return report();
+    }
+
+    private static class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int LINEAR = 2 * SUB_BUCKETS; // values below this get a bucket each
+
+        private final AtomicLongArray buckets = new AtomicLongArray(LINEAR + (64 - 4) * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            total.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+
+        long percentile(double quantile) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(1, rank)) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        private static int bucket(long value) {
+            if (value < LINEAR) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < LINEAR) return bucket;
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+            int sub = (bucket - LINEAR) % SUB_BUCKETS;
+            long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+    }
+}
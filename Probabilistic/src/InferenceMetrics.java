@@ -0,0 +1,69 @@
+/**
+ * Sink for timings and counters of the inference pipeline.
+ * Implementations must be thread-safe, one sink is usually shared by every engine of a process.
+ * Engines ask isEnabled() before doing any extra work (such as counting nonzero states),
+ * so the NOOP sink costs next to nothing.
+ */
+public interface InferenceMetrics {
+    // stages, timed in nanoseconds:
+    String BUILD = "build";
+    String FORWARD = "forward";
+    String FORWARD_BACKWARD = "forwardBackward";
+    String VITERBI = "viterbi";
+    String PARTICLE_UPDATE = "particle.update";
+    String DO_MOVES = "doMoves";
+    String REPORT = "report";
+
+    // counters:
+    String STEPS = "steps";
+    String ALLOCATED_BYTES = "allocatedBytes";
+    String NONZERO_STATES = "nonzeroStates";
+    String UNDERFLOWS = "underflows";
+    String RENORMALISATIONS = "renormalisations";
+    String RESAMPLES = "resamples";
+    String CACHE_WRITE_FAILURES = "cacheWriteFailures";
+
+    /**
+     * a sink that drops everything.
+     */
+    InferenceMetrics NOOP = new InferenceMetrics() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void recordTime(String stage, long nanos) {
+        }
+
+        @Override
+        public void increment(String counter, long delta) {
+        }
+    };
+
+    /**
+     * @return false when nothing is recorded, so callers can skip measuring.
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * @param stage one of the stage names above, or any other name.
+     * @param nanos time spent, from System.nanoTime differences.
+     */
+    void recordTime(String stage, long nanos);
+
+    void increment(String counter, long delta);
+
+    /**
+     * @return the number of nonzero entries of a distribution, for the NONZERO_STATES counter.
+     */
+    static long countNonzero(double[] distribution) {
+        long count = 0;
+        for (double d : distribution) {
+            if (d != 0) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * An online localisation engine: takes one (action, color) observation at a time
+ * and answers where the robot probably is. BeliefTracker is the exact filter,
+ * ParticleFilter an approximation for mazes too large for an exact belief.
+ */
+public interface LocalisationFilter {
+
+    /**
+     * go back to the initial belief, forgetting all observations.
+     */
+    void reset();
+
+    /**
+     * take one observation.
+     *
+     * @param action the motion commanded before the reading.
+     * @param color  the color given by sensor after moving.
+     */
+    void update(int[] action, char color);
+
+    /**
+     * @return the number of observations taken since the last reset.
+     */
+    long getSteps();
+
+    /**
+     * @return the state with the largest probability.
+     */
+    int getEstimate();
+
+    /**
+     * @param out receives the distribution over the states of the maze.
+     * @return out
+     */
+    double[] getBelief(double[] out);
+}
@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * float32 rows spilled to a temporary file and accessed through memory-mapped segments,
+ * so the history lives in the page cache instead of on the heap.
+ * <p>
+ * Segments are mapped as rows arrive: the first one holds about 1 MiB, each next one twice
+ * the previous, up to 1 GiB, so the file grows with the history. close unmaps the segments
+ * and deletes the file; the history cannot be used afterwards.
+ */
+public class MappedHistory implements BeliefHistory {
+    private static final long FIRST_SEGMENT_BYTES = 1L << 20;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    // sun.misc.Unsafe.invokeCleaner to unmap on close, null when not available.
+    private static final Object UNSAFE;
+    private static final Method CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method cleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            cleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            cleaner = null;
+        }
+        UNSAFE = unsafe;
+        CLEANER = cleaner;
+    }
+
+    private final int stateNumber;
+    private final int firstSegmentRows;
+    private final int maxSegmentRows;
+    private final Path file;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+    private final List<FloatBuffer> segments = new ArrayList<>();
+    private int[] segmentStart = new int[8];   // first step of every segment, then the step after the last one.
+    private int size;
+    private boolean closed;
+
+    /**
+     * spill to a file in the default temporary directory.
+     */
+    public MappedHistory(int stateNumber) throws IOException {
+        this(stateNumber, Files.createTempFile("belief", ".history"));
+    }
+
+    /**
+     * @param file the spill file, created or truncated, and deleted on close.
+     */
+    public MappedHistory(int stateNumber, Path file) throws IOException {
+        long rowBytes = Math.max(1, (long) stateNumber * Float.BYTES);
+        if (rowBytes > MAX_SEGMENT_BYTES) throw new IllegalArgumentException("a row does not fit in one segment");
+        this.stateNumber = stateNumber;
+        this.firstSegmentRows = (int) Math.max(1, FIRST_SEGMENT_BYTES / rowBytes);
+        this.maxSegmentRows = (int) (MAX_SEGMENT_BYTES / rowBytes);
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public int getStateNumber() {
+        return stateNumber;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the segment holding step, mapping new segments up to it.
+     */
+    private int segment(int step) {
+        if (closed) throw new IllegalStateException("history is closed");
+        while (segmentStart[segments.size()] <= step) {
+            int index = segments.size();
+            int rows = (int) Math.min(maxSegmentRows, (long) firstSegmentRows << Math.min(index, 30));
+            long offset = (long) segmentStart[index] * stateNumber * Float.BYTES;
+            long length = (long) rows * stateNumber * Float.BYTES;
+            try {
+                // mapping past the end grows the file, new pages read as zeros.
+                MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+                mappings.add(mapping);
+                segments.add(mapping.order(ByteOrder.nativeOrder()).asFloatBuffer());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (index + 2 > segmentStart.length) segmentStart = Arrays.copyOf(segmentStart, segmentStart.length * 2);
+            segmentStart[index + 1] = segmentStart[index] + rows;
+        }
+        int low = 0, high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segmentStart[mid] <= step) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    @Override
+    public void set(int step, double[] belief) {
+        int index = segment(step);
+        FloatBuffer segment = segments.get(index);
+        int base = (step - segmentStart[index]) * stateNumber;
+        for (int j = 0; j < stateNumber; j++) {
+            segment.put(base + j, (float) belief[j]);
+        }
+        size = Math.max(size, step + 1);
+    }
+
+    @Override
+    public double[] get(int step, double[] out) {
+        if (step >= size) throw new IndexOutOfBoundsException("step " + step + " of " + size);
+        int index = segment(step);
+        FloatBuffer segment = segments.get(index);
+        int base = (step - segmentStart[index]) * stateNumber;
+        for (int j = 0; j < stateNumber; j++) {
+            out[j] = segment.get(base + j);
+        }
+        return out;
+    }
+
+    @Override
+    public int argMax(int step) {
+        if (step >= size) throw new IndexOutOfBoundsException("step " + step + " of " + size);
+        int index = segment(step);
+        FloatBuffer segment = segments.get(index);
+        int base = (step - segmentStart[index]) * stateNumber;
+        int maxIndex = 0;
+        float maxValue = 0;
+        for (int j = 0; j < stateNumber; j++) {
+            float v = segment.get(base + j);
+            if (v > maxValue) {
+                maxValue = v;
+                maxIndex = j;
+            }
+        }
+        return maxIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        segments.clear();
+        for (MappedByteBuffer mapping : mappings) {
+            unmap(mapping);
+        }
+        mappings.clear();
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * release a mapping now instead of when the buffer is garbage collected, through
+     * sun.misc.Unsafe.invokeCleaner (jdk.unsupported); left to the collector when that is not available.
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        if (CLEANER == null) return;
+        try {
+            CLEANER.invoke(UNSAFE, mapping);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the mapping goes away with the buffer.
+        }
+    }
+}
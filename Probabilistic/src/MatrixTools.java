@@ -1,16 +1,133 @@
+import java.util.Arrays;
+
 /**
  * Created by gejing on 2/27/16.
+ * <p>
+ * The dense routines work on flat row-major double[] storage (element (i, j) of an
+ * rows x cols matrix at i * cols + j) and write into buffers given by the caller.
+ * The multiply is tiled so blocks of both operands stay in cache, and every inner loop
+ * goes through VectorKernels, using SIMD when the optional vector/ sources are built and
+ * jdk.incubator.vector is available (set -Dmatrixtools.vector=false to force the scalar loops).
+ * The jagged double[][] methods are kept and run on the same kernels.
  */
 public class MatrixTools {
-    public static double[][] multiple(double[][] ma, double[][] mb) {
-        if (isLegal(ma, mb)) {
-            double[][] result = new double[ma.length][mb[0].length];
-            for (int i = 0; i < ma.length; i++) {
-                for (int j = 0; j < mb[0].length; j++) {
-                    result[i][j] = getValue(ma, mb, i, j);
+    private static final int BLOCK_ROWS = 64;
+    private static final int BLOCK_DEPTH = 128;
+    private static final int BLOCK_COLS = 512;
+
+    static final VectorKernels KERNELS = loadKernels();
+
+    private static VectorKernels loadKernels() {
+        if (Boolean.parseBoolean(System.getProperty("matrixtools.vector", "true"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // next to this class, which is in a package when the sources are copied into the bench build.
+                String name = MatrixTools.class.getName().replace("MatrixTools", "VectorApiKernels");
+                return (VectorKernels) Class.forName(name).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // vector/ not built, fall through to the scalar loops
+            }
+        }
+        return new VectorKernels.Scalar();
+    }
+
+    /**
+     * @return true when the SIMD kernels are in use.
+     */
+    public static boolean isVectorized() {
+        return !(KERNELS instanceof VectorKernels.Scalar);
+    }
+
+    /**
+     * out = a * b, with a of size rows x depth and b of size depth x cols, all row-major.
+     *
+     * @param out receives the rows x cols product, must not be a or b.
+     */
+    public static void multiply(double[] a, double[] b, double[] out, int rows, int depth, int cols) {
+        Arrays.fill(out, 0, rows * cols, 0);
+        for (int i0 = 0; i0 < rows; i0 += BLOCK_ROWS) {
+            int i1 = Math.min(i0 + BLOCK_ROWS, rows);
+            for (int k0 = 0; k0 < depth; k0 += BLOCK_DEPTH) {
+                int k1 = Math.min(k0 + BLOCK_DEPTH, depth);
+                for (int j0 = 0; j0 < cols; j0 += BLOCK_COLS) {
+                    int width = Math.min(j0 + BLOCK_COLS, cols) - j0;
+                    for (int i = i0; i < i1; i++) {
+                        for (int k = k0; k < k1; k++) {
+                            double aik = a[i * depth + k];
+                            if (aik != 0) {
+                                KERNELS.axpy(aik, b, k * cols + j0, out, i * cols + j0, width);
+                            }
+                        }
+                    }
                 }
             }
-            return result;
+        }
+    }
+
+    /**
+     * out = transpose of the rows x cols matrix m, tiled so both sides are walked in blocks.
+     *
+     * @param out receives the cols x rows matrix, must not be m.
+     */
+    public static void transpose(double[] m, double[] out, int rows, int cols) {
+        final int block = 32;
+        for (int i0 = 0; i0 < rows; i0 += block) {
+            int i1 = Math.min(i0 + block, rows);
+            for (int j0 = 0; j0 < cols; j0 += block) {
+                int j1 = Math.min(j0 + block, cols);
+                for (int i = i0; i < i1; i++) {
+                    for (int j = j0; j < j1; j++) {
+                        out[j * rows + i] = m[i * cols + j];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * out = a * b element wise, out may be a or b.
+     */
+    public static void vectorMultiple(double[] a, double[] b, double[] out) {
+        KERNELS.multiply(a, b, out, out.length);
+    }
+
+    /**
+     * normalize m in place, a vector summing to zero is left unchanged.
+     *
+     * @return the sum before normalizing.
+     */
+    public static double normalizeInPlace(double[] m) {
+        double sum = KERNELS.sum(m, m.length);
+        if (Double.isNaN(0.0 / sum)) {
+            return sum;
+        }
+        KERNELS.scale(m, 1.0 / sum, m.length);
+        return sum;
+    }
+
+    public static double[] toFlat(double[][] matrix) {
+        int cols = matrix[0].length;
+        double[] flat = new double[matrix.length * cols];
+        for (int i = 0; i < matrix.length; i++) {
+            System.arraycopy(matrix[i], 0, flat, i * cols, cols);
+        }
+        return flat;
+    }
+
+    public static double[][] fromFlat(double[] flat, int rows, int cols) {
+        double[][] matrix = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(flat, i * cols, matrix[i], 0, cols);
+        }
+        return matrix;
+    }
+
+    public static double[][] multiple(double[][] ma, double[][] mb) {
+        if (isLegal(ma, mb)) {
+            int rows = ma.length, depth = mb.length, cols = mb[0].length;
+            double[] result = new double[rows * cols];
+            multiply(toFlat(ma), toFlat(mb), result, rows, depth, cols);
+            return fromFlat(result, rows, cols);
         }
         return null;
     }
@@ -21,8 +138,9 @@ public class MatrixTools {
 
         double[][] transMatrix = new double[n][m];
         for (int i = 0; i < m; i++) {
+            double[] row = matrix[i];
             for (int j = 0; j < n; j++) {
-                transMatrix[j][i] = matrix[i][j];
+                transMatrix[j][i] = row[j];
             }
         }
         return transMatrix;
@@ -32,16 +150,13 @@ public class MatrixTools {
         if (matrix.length > 1 && matrix[0].length > 1)
             return null;
         double sum = 0;
-        double[][] result = new double[matrix.length][matrix[0].length];
-        for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                sum += matrix[i][j];
-            }
+        double[][] result = new double[matrix.length][];
+        for (double[] row : matrix) {
+            sum += KERNELS.sum(row, row.length);
         }
         for (int i = 0; i < matrix.length; i++) {
-            for (int j = 0; j < matrix[0].length; j++) {
-                result[i][j] = matrix[i][j] / sum;
-            }
+            result[i] = matrix[i].clone();
+            KERNELS.scale(result[i], 1.0 / sum, result[i].length);
         }
         return result;
     }
@@ -51,25 +166,18 @@ public class MatrixTools {
             return null;
         }
         double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = a[i] * b[i];
-        }
+        vectorMultiple(a, b, result);
         return result;
     }
 
     public static double[] vectorNormalize(double[] m) {
-        double sum = 0;
-        double[] result = new double[m.length];
-        for (int i = 0; i < m.length; i++) {
-            sum += m[i];
-        }
+        double sum = KERNELS.sum(m, m.length);
         double test = 0.0 / sum;
         if (Double.isNaN(test)) {
             return m;
         }
-        for (int i = 0; i < m.length; i++) {
-            result[i] = m[i] / sum;
-        }
+        double[] result = m.clone();
+        KERNELS.scale(result, 1.0 / sum, result.length);
         return result;
     }
 
@@ -77,14 +185,6 @@ public class MatrixTools {
         return a[0].length == b.length;
     }
 
-    private static double getValue(double[][] a, double[][] b, int row, int col) {
-        double result = 0;
-        for (int i = 0; i < a[0].length; i++) {
-            result += a[row][i] * b[i][col];
-        }
-        return result;
-    }
-
     public static void main(String[] args) {
         double[][] test = {{1, 2, 3}, {4, 5, 6}};
         double[][] test2 = {{1}, {2}, {3}};
@@ -1,9 +1,12 @@
 import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 public class Maze {
@@ -16,46 +19,141 @@ public class Maze {
     public static int[] WEST = {-1, 0};
     public static int[] NO_MOVE = {0, 0};
 
+    public static final char WALL = '#';
+
     public int width;
     public int height;
 
-    private char[][] grid;
+    // the grid is packed row by row (cell = y * width + x): one bit per cell
+    // telling walls apart, and a 2 bit code per floor tile into the palette.
+    private long[] walls;
+    private long[] colors;
+    private char[] palette = new char[4];
+    private int paletteSize;
+
+    private Maze(int width, int height) {
+        this.width = width;
+        this.height = height;
+        long cells = (long) width * height;
+        if (cells > Integer.MAX_VALUE) throw new IllegalArgumentException("maze too large: " + width + "x" + height);
+        walls = new long[(int) ((cells + 63) >>> 6)];
+        colors = new long[(int) ((cells + 31) >>> 5)];
+    }
 
+    /**
+     * read a maze file, the file is mapped, decoded as UTF-8 in one go and scanned twice
+     * instead of being split into strings.
+     *
+     * @param filename path of the maze file.
+     * @return the maze, or null when the file cannot be read, is not valid UTF-8, has more
+     * than four floor colors or too many cells.
+     */
     public static Maze readFromFile(String filename) {
-        Maze m = new Maze();
-
         try {
-            List<String> lines = readFile(filename);
-            m.height = lines.size();
-
-            int y = 0;
-            m.grid = new char[m.height][];
-            for (String line : lines) {
-                m.width = line.length();
-                m.grid[m.height - y - 1] = new char[m.width];
-                for (int x = 0; x < line.length(); x++) {
-                    // (0, 0) should be bottom left, so flip y as
-                    //  we read from file into array:
-                    m.grid[m.height - y - 1][x] = line.charAt(x);
-                }
-                y++;
+            return readFile(Paths.get(filename));
+        } catch (IOException | IllegalArgumentException E) {
+            return null;
+        }
+    }
+
+    /**
+     * build a maze from its text rows, the first row is the top of the maze.
+     *
+     * @param lines rows of the maze, short rows are padded with walls.
+     * @return the maze.
+     * @throws IllegalArgumentException when the rows have more than four floor colors or too many cells.
+     */
+    public static Maze fromLines(List<String> lines) {
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, line.length());
+        }
+        Maze m = new Maze(width, lines.size());
+
+        int y = 0;
+        for (String line : lines) {
+            for (int x = 0; x < width; x++) {
+                // (0, 0) should be bottom left, so flip y as
+                //  we read from file into array:
+                m.set(x, m.height - y - 1, x < line.length() ? line.charAt(x) : WALL);
+            }
+            y++;
+        }
 
-                // System.out.println(line.length());
+        return m;
+    }
+
+    private static Maze readFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("maze file too large: " + path);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // malformed input is reported as a CharacterCodingException.
+            CharBuffer buffer = ENCODING.newDecoder().decode(mapped);
+            int chars = buffer.limit();
+
+            // first pass, size of the grid:
+            int lines = 0, width = 0, length = 0;
+            for (int i = 0; i < chars; i++) {
+                char b = buffer.get(i);
+                if (b == '\n') {
+                    width = Math.max(width, length);
+                    lines++;
+                    length = 0;
+                } else if (b != '\r') {
+                    length++;
+                }
+            }
+            if (length > 0) {
+                width = Math.max(width, length);
+                lines++;
             }
 
+            // second pass, fill it top row first:
+            Maze m = new Maze(width, lines);
+            int x = 0, y = lines - 1;
+            for (int i = 0; i < chars; i++) {
+                char b = buffer.get(i);
+                if (b == '\n') {
+                    for (; x < width; x++) m.set(x, y, WALL);
+                    x = 0;
+                    y--;
+                } else if (b != '\r') {
+                    m.set(x++, y, b);
+                }
+            }
+            if (y >= 0) {
+                for (; x < width; x++) m.set(x, y, WALL);
+            }
             return m;
-        } catch (IOException E) {
-            return null;
         }
     }
 
-    private static List<String> readFile(String fileName) throws IOException {
-        Path path = Paths.get(fileName);
-        return Files.readAllLines(path, ENCODING);
+    private void set(int x, int y, char c) {
+        int cell = y * width + x;
+        if (c == WALL) {
+            walls[cell >>> 6] |= 1L << cell;
+            return;
+        }
+        long code = paletteCode(c);
+        colors[cell >>> 5] |= code << ((cell & 31) << 1);
+    }
+
+    private int paletteCode(char c) {
+        for (int i = 0; i < paletteSize; i++) {
+            if (palette[i] == c) return i;
+        }
+        if (paletteSize == palette.length) {
+            throw new IllegalArgumentException("a maze can have at most " + palette.length + " floor colors, found '" + c + "'");
+        }
+        palette[paletteSize] = c;
+        return paletteSize++;
     }
 
     public char getChar(int x, int y) {
-        return grid[y][x];
+        int cell = y * width + x;
+        if ((walls[cell >>> 6] & (1L << cell)) != 0) return WALL;
+        return palette[(int) (colors[cell >>> 5] >>> ((cell & 31) << 1)) & 3];
     }
 
     // is the location x, y on the map, and also a legal floor tile (not a wall)?
@@ -63,21 +161,22 @@ public class Maze {
         // on the map
         if (x >= 0 && x < width && y >= 0 && y < height) {
             // and it's a floor tile, not a wall tile:
-            return getChar(x, y) != '#';
+            int cell = y * width + x;
+            return (walls[cell >>> 6] & (1L << cell)) == 0;
         }
         return false;
     }
 
 
     public String toString() {
-        String s = "";
+        StringBuilder s = new StringBuilder((width + 1) * height);
         for (int y = height - 1; y >= 0; y--) {
             for (int x = 0; x < width; x++) {
-                s += grid[y][x];
+                s.append(getChar(x, y));
             }
-            s += "\n";
+            s.append('\n');
         }
-        return s;
+        return s.toString();
     }
 
     public static void main(String args[]) {
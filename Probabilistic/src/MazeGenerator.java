@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generate random mazes of any size for benchmarks and simulations.
+ * Every cell is a wall with probability wallDensity, otherwise a floor tile
+ * of one of the given colors; the same seed always gives the same maze.
+ */
+public class MazeGenerator {
+
+    /**
+     * @param width       number of columns.
+     * @param height      number of rows.
+     * @param wallDensity probability of a cell being a wall, in [0, 1).
+     * @param colors      colors to paint the floor tiles with, e.g. "rgby".
+     * @param seed        random seed.
+     * @return the rows of the maze, top row first, as read by Maze.fromLines.
+     */
+    public static List<String> generateLines(int width, int height, double wallDensity, String colors, long seed) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("maze must not be empty");
+        if (wallDensity < 0 || wallDensity >= 1) throw new IllegalArgumentException("wall density must be in [0, 1)");
+        if (colors.isEmpty()) throw new IllegalArgumentException("need at least one color");
+        SplittableRandom random = new SplittableRandom(seed);
+        List<String> lines = new ArrayList<>(height);
+        boolean hasFloor = false;
+        char[] row = new char[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextDouble() < wallDensity) {
+                    row[x] = '#';
+                } else {
+                    row[x] = colors.charAt(random.nextInt(colors.length()));
+                    hasFloor = true;
+                }
+            }
+            if (y == height - 1 && !hasFloor) {
+                // a maze needs at least one tile to stand on:
+                row[0] = colors.charAt(0);
+            }
+            lines.add(new String(row));
+        }
+        return lines;
+    }
+
+    public static Maze generate(int width, int height, double wallDensity, String colors, long seed) {
+        return Maze.fromLines(generateLines(width, height, wallDensity, colors, seed));
+    }
+
+    /**
+     * a width x height maze with 20% walls and the four sensor colors.
+     */
+    public static Maze generate(int width, int height, long seed) {
+        return generate(width, height, 0.2, "rgby", seed);
+    }
+
+    /**
+     * @return a random color sequence, for driving the inference without simulating a robot.
+     */
+    public static char[] randomReadings(int length, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        char[] readings = new char[length];
+        for (int i = 0; i < length; i++) {
+            readings[i] = SensorModel.COLORS[random.nextInt(SensorModel.COLORS.length)];
+        }
+        return readings;
+    }
+
+    public static void main(String[] args) {
+        System.out.println(generate(20, 10, 42));
+    }
+}
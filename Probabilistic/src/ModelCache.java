@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary cache of compiled models, so a service restart does not rebuild the same maze.
+ * <p>
+ * The file starts with a header holding a SHA-256 key of the maze content and the sensor
+ * parameters and a CRC32C of the body, followed by the raw arrays of the transition and
+ * sensor models. Loading maps the file, checks the body against the CRC and copies the arrays
+ * out in bulk. A missing, stale or damaged file is rebuilt from the maze and written again.
+ */
+public class ModelCache {
+    private static final int MAGIC = 0x4b57484d; // "KWHM"
+    private static final int VERSION = 2;
+    private static final int KEY_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 * Integer.BYTES + KEY_LENGTH + 4 * Integer.BYTES;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * load the model of mazeFile from mazeFile + ".model", compiling and writing it when needed.
+     *
+     * @return the model, or null when the maze file cannot be read.
+     */
+    public static CompiledModel loadOrCompile(String mazeFile) {
+        Maze maze = Maze.readFromFile(mazeFile);
+        if (maze == null) return null;
+        return loadOrCompile(maze, Paths.get(mazeFile + ".model"));
+    }
+
+    /**
+     * load the model of maze from cacheFile when its key matches, otherwise compile it and
+     * replace cacheFile. A cache that cannot be written is not an error, the model is returned anyway.
+     */
+    public static CompiledModel loadOrCompile(Maze maze, Path cacheFile) {
+        return loadOrCompile(maze, cacheFile, InferenceMetrics.NOOP);
+    }
+
+    /**
+     * like loadOrCompile(maze, cacheFile), the model reports to metrics, which also counts
+     * CACHE_WRITE_FAILURES when cacheFile cannot be written.
+     */
+    public static CompiledModel loadOrCompile(Maze maze, Path cacheFile, InferenceMetrics metrics) {
+        byte[] key = key(maze);
+        CompiledModel model = load(maze, key, cacheFile);
+        if (model != null) return model.withMetrics(metrics);
+        model = CompiledModel.compile(maze, metrics);
+        try {
+            write(model, key, cacheFile);
+        } catch (IOException e) {
+            metrics.increment(InferenceMetrics.CACHE_WRITE_FAILURES, 1);
+        }
+        return model;
+    }
+
+    /**
+     * @return the cached model of maze, or null when the file is missing or does not match.
+     */
+    public static CompiledModel load(Maze maze, Path cacheFile) {
+        return load(maze, key(maze), cacheFile);
+    }
+
+    /**
+     * write model to cacheFile; models with other than the default parameters are keyed so that
+     * loadOrCompile never takes them for the default model.
+     */
+    public static void write(CompiledModel model, Path cacheFile) throws IOException {
+        write(model, key(model.getMaze(), model.getParameters()), cacheFile);
+    }
+
+    /**
+     * @return SHA-256 of the format version, the default sensor parameters and the maze rows.
+     */
+    public static byte[] key(Maze maze) {
+        return key(maze, ModelParameters.DEFAULT);
+    }
+
+    /**
+     * @return the key of maze compiled with parameters, the same as key(maze) for the default ones.
+     */
+    public static byte[] key(Maze maze, ModelParameters parameters) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            String stay = parameters.getStayProbability() == 0 ? "" : " stay " + parameters.getStayProbability();
+            digest.update(("v" + VERSION + " " + parameters.getSensorHit() + " " + parameters.getSensorMiss() + stay
+                    + " " + maze.width + "x" + maze.height + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(maze.toString().getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+    private static CompiledModel load(Maze maze, byte[] key, Path cacheFile) {
+        if (!Files.isRegularFile(cacheFile)) return null;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ORDER);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+            int checksum = buffer.getInt();
+            buffer.getInt(); // reserved
+            byte[] stored = new byte[KEY_LENGTH];
+            buffer.get(stored);
+            if (!Arrays.equals(stored, key)) return null;
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int states = buffer.getInt();
+            int entries = buffer.getInt();
+            if (width != maze.width || height != maze.height || states < 0 || entries < 0
+                    || size != HEADER_LENGTH + TransitionModel.byteSize(states, entries) + SensorModel.byteSize(states)) {
+                return null;
+            }
+            if (checksum != checksum(buffer, (int) size)) return null;
+            StateIndex index = StateIndex.of(maze);
+            if (index.size() != states) return null;
+            TransitionModel T = TransitionModel.readFrom(buffer, states, entries);
+            SensorModel O = SensorModel.readFrom(buffer, states);
+            return new CompiledModel(maze, index, T, O);
+        } catch (IOException | RuntimeException e) {
+            // an unreadable or damaged cache is simply rebuilt.
+            return null;
+        }
+    }
+
+    private static void write(CompiledModel model, byte[] key, Path cacheFile) throws IOException {
+        TransitionModel T = model.getTransitionModel();
+        int states = T.getStateNumber();
+        int entries = T.getEntryNumber();
+        long size = HEADER_LENGTH + TransitionModel.byteSize(states, entries) + SensorModel.byteSize(states);
+        if (size > Integer.MAX_VALUE) throw new IOException("model too large to cache");
+
+        // write next to the target and move it in place, readers never see half a file.
+        Path dir = cacheFile.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ORDER);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0);
+                buffer.put(key);
+                buffer.putInt(model.getMaze().width).putInt(model.getMaze().height).putInt(states).putInt(entries);
+                T.writeTo(buffer);
+                model.getSensorModel().writeTo(buffer);
+                buffer.putInt(2 * Integer.BYTES, checksum(buffer, (int) size));
+                buffer.force();
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return the CRC32C of the body, the bytes after the header.
+     */
+    private static int checksum(MappedByteBuffer buffer, int size) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().limit(size).position(HEADER_LENGTH));
+        return (int) crc.getValue();
+    }
+
+    public static void main(String[] args) {
+        long start = System.nanoTime();
+        CompiledModel model = loadOrCompile(args.length > 0 ? args[0] : "simple.maz");
+        System.out.printf("%d tiles ready in %.2f ms%n", model.getTileNumber(), (System.nanoTime() - start) / 1e6);
+    }
+}
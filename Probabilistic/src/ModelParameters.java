@@ -0,0 +1,97 @@
+import java.util.SplittableRandom;
+
+/**
+ * The free parameters of the maze model.
+ * <p>
+ * The sensor reads the true color of the tile with sensorHit and each of the other colors
+ * with sensorMiss. Each step the robot stays put with stayProbability, otherwise it picks one
+ * of the four directions at random and stays in place when that runs into a wall.
+ */
+public class ModelParameters {
+    /**
+     * the hand set values: 0.88 / 0.04 sensor, and a robot that always tries to move.
+     */
+    public static final ModelParameters DEFAULT = new ModelParameters(CompiledModel.SENSOR_HIT, CompiledModel.SENSOR_MISS, 0);
+
+    private final double sensorHit;
+    private final double sensorMiss;
+    private final double stayProbability;
+
+    public ModelParameters(double sensorHit, double sensorMiss, double stayProbability) {
+        if (!(sensorHit >= 0 && sensorHit <= 1 && sensorMiss >= 0 && sensorMiss <= 1)) {
+            throw new IllegalArgumentException("sensor probabilities must be in [0, 1]");
+        }
+        if (!(stayProbability >= 0 && stayProbability <= 1)) {
+            throw new IllegalArgumentException("stay probability must be in [0, 1]");
+        }
+        this.sensorHit = sensorHit;
+        this.sensorMiss = sensorMiss;
+        this.stayProbability = stayProbability;
+    }
+
+    /**
+     * @return parameters with the miss probability spread evenly over the other colors.
+     */
+    public static ModelParameters of(double sensorHit, double stayProbability) {
+        return new ModelParameters(sensorHit, (1 - sensorHit) / (SensorModel.COLORS.length - 1), stayProbability);
+    }
+
+    public double getSensorHit() {
+        return sensorHit;
+    }
+
+    public double getSensorMiss() {
+        return sensorMiss;
+    }
+
+    public double getStayProbability() {
+        return stayProbability;
+    }
+
+    /**
+     * @return the probability of moving to one given legal neighbour.
+     */
+    public double getMoveProbability() {
+        return (1 - stayProbability) / 4;
+    }
+
+    /**
+     * simulate the sensor on a tile: the true color with sensorHit, each other color with sensorMiss.
+     *
+     * @param trueColor the color of the tile, one of SensorModel.COLORS.
+     * @param random    source of the noise.
+     * @return the reading.
+     */
+    public char sampleReading(char trueColor, SplittableRandom random) {
+        int i = SensorModel.colorIndex(trueColor);
+        double u = random.nextDouble();
+        if (u >= sensorHit) {
+            int shift = sensorMiss > 0 ? Math.min(SensorModel.COLORS.length - 1, 1 + (int) ((u - sensorHit) / sensorMiss)) : 1;
+            i = (i + shift) % SensorModel.COLORS.length;
+        }
+        return SensorModel.COLORS[i];
+    }
+
+    /**
+     * simulate the choice to stay put, drawing nothing from random when the robot never stays.
+     *
+     * @return true when the robot stays this step, otherwise it tries one of the four directions.
+     */
+    public boolean sampleStay(SplittableRandom random) {
+        return stayProbability > 0 && random.nextDouble() < stayProbability;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ModelParameters)) return false;
+        ModelParameters p = (ModelParameters) o;
+        return sensorHit == p.sensorHit && sensorMiss == p.sensorMiss && stayProbability == p.stayProbability;
+    }
+
+    public int hashCode() {
+        return Double.hashCode(sensorHit) * 31 * 31 + Double.hashCode(sensorMiss) * 31 + Double.hashCode(stayProbability);
+    }
+
+    public String toString() {
+        return "sensor hit " + sensorHit + ", miss " + sensorMiss + ", stay " + stayProbability;
+    }
+}
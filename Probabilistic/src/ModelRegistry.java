@@ -0,0 +1,255 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe store of compiled models for many mazes, shared by every request of a process.
+ * <p>
+ * Models are keyed by the content hash of the maze (ModelCache.key), so two paths holding the
+ * same map share one model. A model is loaded on first use; threads asking for a maze that is
+ * still loading wait for that load instead of starting their own. When the models exceed the
+ * memory budget the least recently used ones are dropped from the registry; callers still
+ * holding one keep using it, and the next request loads it again.
+ */
+public class ModelRegistry {
+    private static volatile ModelRegistry shared;
+
+    private final long budgetBytes;
+    private final boolean diskCache;
+    private final InferenceMetrics metrics;
+
+    private final ConcurrentHashMap<String, CompletableFuture<CompiledModel>> models = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Path, FileKey> files = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Path> sources = new ConcurrentHashMap<>();
+
+    // loaded models in access order with their size, guarded by itself.
+    private final LinkedHashMap<String, Long> recent = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    private long loads;
+    private long evictions;
+
+    /**
+     * registry compiling models in memory only.
+     *
+     * @param budgetBytes models are evicted once their total size exceeds this.
+     */
+    public ModelRegistry(long budgetBytes) {
+        this(budgetBytes, false, InferenceMetrics.NOOP);
+    }
+
+    /**
+     * @param diskCache load and store models of maze files through ModelCache.
+     * @param metrics   metrics of every model of the registry.
+     */
+    public ModelRegistry(long budgetBytes, boolean diskCache, InferenceMetrics metrics) {
+        if (budgetBytes <= 0) throw new IllegalArgumentException("budget must be positive");
+        this.budgetBytes = budgetBytes;
+        this.diskCache = diskCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * the registry of the process, compiling in memory with a budget of -Dmodelregistry.budget
+     * bytes, 256 MiB by default.
+     */
+    public static ModelRegistry shared() {
+        ModelRegistry registry = shared;
+        if (registry == null) {
+            synchronized (ModelRegistry.class) {
+                registry = shared;
+                if (registry == null) {
+                    registry = new ModelRegistry(Long.getLong("modelregistry.budget", 256L << 20));
+                    shared = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * @param mazeFile path of the maze file.
+     * @return the model of the maze, or null when the file cannot be read.
+     */
+    public CompiledModel get(String mazeFile) {
+        Path path = Paths.get(mazeFile).toAbsolutePath().normalize();
+        FileKey known = files.get(path);
+        if (known != null && known.matches(path)) {
+            CompiledModel model = getByHash(known.hash);
+            if (model != null) return model;
+        }
+        Maze maze = Maze.readFromFile(mazeFile);
+        if (maze == null) return null;
+        String hash = hashOf(maze);
+        files.put(path, new FileKey(hash, path));
+        sources.put(hash, path);
+        return get(hash, maze, path);
+    }
+
+    /**
+     * @param maze the maze, must not be changed afterwards.
+     * @return the model of a maze with the same content, loading it from maze when needed.
+     */
+    public CompiledModel get(Maze maze) {
+        return get(hashOf(maze), maze, null);
+    }
+
+    /**
+     * @param hash content hash of a maze, see hashOf.
+     * @return the model when it is loaded, reloaded from its file when it was evicted, or null
+     * when no maze with that hash went through the registry.
+     */
+    public CompiledModel getByHash(String hash) {
+        CompletableFuture<CompiledModel> future = models.get(hash);
+        if (future != null) return await(hash, future);
+        Path source = sources.get(hash);
+        if (source == null) return null;
+        Maze maze = Maze.readFromFile(source.toString());
+        if (maze == null || !hash.equals(hashOf(maze))) return null;
+        return get(hash, maze, source);
+    }
+
+    private CompiledModel get(String hash, Maze maze, Path source) {
+        CompletableFuture<CompiledModel> future = models.get(hash);
+        if (future == null) {
+            CompletableFuture<CompiledModel> created = new CompletableFuture<>();
+            future = models.putIfAbsent(hash, created);
+            if (future == null) {
+                // this thread loads it, the others wait on created.
+                future = created;
+                try {
+                    CompiledModel model = load(maze, source);
+                    admit(hash, model.getByteSize());
+                    created.complete(model);
+                } catch (RuntimeException | Error e) {
+                    models.remove(hash, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+            }
+        }
+        return await(hash, future);
+    }
+
+    private CompiledModel load(Maze maze, Path source) {
+        if (diskCache && source != null) {
+            return ModelCache.loadOrCompile(maze, Paths.get(source + ".model"), metrics);
+        }
+        return CompiledModel.compile(maze, metrics);
+    }
+
+    private CompiledModel await(String hash, CompletableFuture<CompiledModel> future) {
+        CompiledModel model;
+        try {
+            model = future.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("cannot load model " + hash, e.getCause());
+        }
+        synchronized (recent) {
+            recent.get(hash); // touch
+        }
+        return model;
+    }
+
+    /**
+     * count a new model and evict the least recently used others while over budget.
+     */
+    private void admit(String hash, long bytes) {
+        synchronized (recent) {
+            recent.put(hash, bytes);
+            usedBytes += bytes;
+            loads++;
+            Iterator<Map.Entry<String, Long>> eldest = recent.entrySet().iterator();
+            while (usedBytes > budgetBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(hash)) continue; // the new one stays even when alone over budget.
+                usedBytes -= entry.getValue();
+                models.remove(entry.getKey());
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of models currently held.
+     */
+    public int size() {
+        synchronized (recent) {
+            return recent.size();
+        }
+    }
+
+    public long getUsedBytes() {
+        synchronized (recent) {
+            return usedBytes;
+        }
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * @return the number of models loaded or compiled so far.
+     */
+    public long getLoadCount() {
+        synchronized (recent) {
+            return loads;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized (recent) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return the key of maze in the registry, ModelCache.key as hex.
+     */
+    public static String hashOf(Maze maze) {
+        byte[] bytes = ModelCache.key(maze);
+        StringBuilder s = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            s.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+        }
+        return s.toString();
+    }
+
+    /**
+     * content hash of a maze file, valid while its size and modification time do not change.
+     */
+    private static class FileKey {
+        final String hash;
+        final long size;
+        final long modified;
+
+        FileKey(String hash, Path path) {
+            this.hash = hash;
+            long size = -1, modified = -1;
+            try {
+                size = Files.size(path);
+                modified = Files.getLastModifiedTime(path).toMillis();
+            } catch (IOException e) {
+                // never matches, the file is read again next time.
+            }
+            this.size = size;
+            this.modified = modified;
+        }
+
+        boolean matches(Path path) {
+            try {
+                return size >= 0 && Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == modified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluate the estimators of a compiled model on simulated robots.
+ * <p>
+ * Every run draws a start tile, a random walk of moves and noisy readings, then scores the
+ * filter, smoothed and viterbi estimates against the actual path. Runs are spread over a
+ * fork-join pool; each one gets its own SplittableRandom split off a seeded root before the
+ * parallel part starts, so a seed gives the same report whatever the thread count.
+ */
+public class MonteCarloHarness {
+    private static final int[][] MOVES = {Maze.NORTH, Maze.EAST, Maze.SOUTH, Maze.WEST};
+
+    private final CompiledModel model;
+    private final ForkJoinPool pool;
+
+    /**
+     * harness running on the common fork-join pool.
+     */
+    public MonteCarloHarness(CompiledModel model) {
+        this(model, ForkJoinPool.commonPool());
+    }
+
+    public MonteCarloHarness(CompiledModel model, ForkJoinPool pool) {
+        this.model = model;
+        this.pool = pool;
+    }
+
+    /**
+     * simulate and score a batch of runs.
+     *
+     * @param simulations number of runs.
+     * @param steps       moves (and readings) per run.
+     * @param seed        root seed of all runs.
+     * @return the merged scores.
+     */
+    public SimulationReport run(int simulations, int steps, long seed) {
+        if (simulations < 0 || steps < 0) throw new IllegalArgumentException("negative simulation size");
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] randoms = new SplittableRandom[simulations];
+        for (int i = 0; i < simulations; i++) {
+            randoms[i] = root.split();
+        }
+        long start = System.nanoTime();
+        SimulationReport report = PoolTasks.runIn(pool, () -> IntStream.range(0, simulations).parallel()
+                .collect(SimulationReport::new,
+                        (partial, i) -> simulate(steps, randoms[i], partial),
+                        SimulationReport::merge));
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * simulate one run and add its scores to report.
+     */
+    private void simulate(int steps, SplittableRandom random, SimulationReport report) {
+        StateIndex index = model.getIndex();
+        Maze maze = model.getMaze();
+        int[] actualPath = new int[steps + 1];
+        char[] sensorReadings = new char[steps];
+        ModelParameters parameters = model.getParameters();
+        int position = random.nextInt(index.size());
+        actualPath[0] = position;
+        for (int i = 0; i < steps; i++) {
+            if (!parameters.sampleStay(random)) {
+                int next = index.neighbour(position, MOVES[random.nextInt(MOVES.length)]);
+                if (next >= 0) {
+                    position = next;
+                }
+            }
+            actualPath[i + 1] = position;
+            sensorReadings[i] = parameters.sampleReading(maze.getChar(index.getX(position), index.getY(position)), random);
+        }
+
+        double[] prior = model.uniformPrior();
+        DenseHistory filtered = new DenseHistory(index.size());
+        DenseHistory smoothed = new DenseHistory(index.size());
+        model.forwardBackward(prior, sensorReadings, filtered, smoothed);
+        report.score(SimulationReport.FILTER, CompiledModel.getMostLikelyStates(filtered), actualPath, index);
+        report.score(SimulationReport.SMOOTHED, CompiledModel.getMostLikelyStates(smoothed), actualPath, index);
+        report.score(SimulationReport.VITERBI, model.viterbi(prior, sensorReadings), actualPath, index);
+        report.addSimulation(steps);
+    }
+
+    /**
+     * usage: MonteCarloHarness [simulations] [steps] [seed] [maze file]
+     */
+    public static void main(String[] args) {
+        int simulations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        Maze maze = Maze.readFromFile(args.length > 3 ? args[3] : "simple.maz");
+        MonteCarloHarness harness = new MonteCarloHarness(CompiledModel.compile(maze));
+        System.out.print(harness.run(simulations, steps, seed));
+    }
+}
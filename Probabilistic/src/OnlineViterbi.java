@@ -0,0 +1,270 @@
+import java.util.Arrays;
+
+/**
+ * Streaming viterbi decoder for a live robot: readings come in one at a time and the path
+ * is handed out as soon as it can no longer change.
+ * <p>
+ * Backpointers are only kept for the pending steps. The surviving paths (one per state with a
+ * finite score) form a tree over the pending steps, which is tracked incrementally: every
+ * pending state counts its children on the surviving paths, a state whose last child dies is
+ * dropped and its parent loses a child in turn, and every pending step counts its states still
+ * on a surviving path. At the most recent step where that count is 1, every survivor shares the
+ * same prefix, so that prefix is the one the offline decoder would return and is committed, and
+ * the backpointers behind it are recycled. As every state of a step is dropped at most once, a
+ * reading costs O(N) on top of the viterbi step, however long the pending window gets.
+ * <p>
+ * Memory is the pending window, which stays short once the robot is localised; an optional
+ * maximum lag forces a commit from the currently best state when it grows too long, at the
+ * price of possibly differing from the offline path and of a traceback over the maximum lag
+ * on every reading that forces one.
+ */
+public class OnlineViterbi {
+    private static final int[] NONE = new int[0];
+
+    private final ViterbiDecoder decoder;
+    private final double[] prior;
+    private final int maxLag;
+    private final int n;
+
+    private double[] score;
+    private double[] next;
+    private long steps;        // readings taken.
+    private long committed;    // states of steps 0 to committed - 1 are handed out.
+
+    // per step k from base to steps, at slot (first + k - base) % ring.length:
+    // ring holds the backpointers, for every state at k its best predecessor at k - 1,
+    // children the number of states at k on a surviving path whose predecessor is each state at k - 1,
+    // live the number of states at k - 1 on a surviving path.
+    private int[][] ring = new int[16][];
+    private int[][] children = new int[16][];
+    private int[] live = new int[16];
+    private int first;
+    private long base;
+    private int lastLive;      // states with a finite score at step steps.
+
+    /**
+     * @param decoder log models, see CompiledModel.newOnlineViterbi.
+     * @param prior   the distribution of step 0.
+     * @param maxLag  force a commit once this many steps are pending, 0 to only commit on coalescence.
+     */
+    public OnlineViterbi(ViterbiDecoder decoder, double[] prior, int maxLag) {
+        if (maxLag < 0) throw new IllegalArgumentException("max lag must not be negative");
+        if (prior.length != decoder.getStateNumber()) throw new IllegalArgumentException("prior has wrong length");
+        this.decoder = decoder;
+        this.prior = prior.clone();
+        this.maxLag = maxLag;
+        this.n = prior.length;
+        score = new double[n];
+        next = new double[n];
+        reset();
+    }
+
+    /**
+     * start a new run from the prior.
+     */
+    public void reset() {
+        lastLive = 0;
+        for (int i = 0; i < n; i++) {
+            score[i] = Math.log(prior[i]);
+            if (prior[i] > 0) lastLive++;
+        }
+        steps = 0;
+        committed = 0;
+        first = 0;
+        base = 1;
+    }
+
+    /**
+     * take one reading.
+     *
+     * @param color the color given by sensor after moving.
+     * @return the states of the steps committed by this reading, in order, often none.
+     */
+    public int[] observe(char color) {
+        int[] backpointer = push();
+        decoder.step(score, color, next, backpointer);
+        double[] swap = score;
+        score = next;
+        next = swap;
+        steps++;
+        link(backpointer);
+
+        // keep the scores near 0, only differences matter.
+        double max = score[ViterbiDecoder.argMax(score)];
+        if (max != Double.NEGATIVE_INFINITY && max < -1e3) {
+            for (int i = 0; i < n; i++) {
+                score[i] -= max;
+            }
+        }
+
+        long coalesced = coalescedStep();
+        if (coalesced >= committed) {
+            return commit(coalesced, liveState(coalesced));
+        }
+        if (maxLag > 0 && steps + 1 - committed > maxLag) {
+            return commit(steps - maxLag, traceBack(ViterbiDecoder.argMax(score), steps, steps - maxLag));
+        }
+        return NONE;
+    }
+
+    /**
+     * end the run: commit every pending step along the path of the best final state.
+     *
+     * @return the states of the pending steps up to the last reading.
+     */
+    public int[] finish() {
+        return commit(steps, ViterbiDecoder.argMax(score));
+    }
+
+    /**
+     * @return the number of readings taken since the last reset.
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the number of steps whose state has been committed, counting step 0.
+     */
+    public long getCommittedSteps() {
+        return committed;
+    }
+
+    /**
+     * @return the number of steps still waiting for a commit.
+     */
+    public int getPendingSteps() {
+        return (int) (steps + 1 - committed);
+    }
+
+    /**
+     * add the states of the new step to the tree of surviving paths and drop the states of the
+     * step before that no survivor passes through anymore.
+     */
+    private void link(int[] backpointer) {
+        int slot = slot(steps);
+        int[] count = children[slot];
+        Arrays.fill(count, 0);
+        live[slot] = lastLive;
+        lastLive = 0;
+        for (int i = 0; i < n; i++) {
+            if (score[i] != Double.NEGATIVE_INFINITY) {
+                count[backpointer[i]]++;
+                lastLive++;
+            }
+        }
+        // next holds the scores of the step before, its states with a finite score were on a surviving path.
+        for (int p = 0; p < n; p++) {
+            if (count[p] == 0 && next[p] != Double.NEGATIVE_INFINITY) drop(steps - 1, p);
+        }
+    }
+
+    /**
+     * drop state of step k from the surviving paths, and its ancestors left without children.
+     */
+    private void drop(long k, int state) {
+        while (k >= committed) {
+            live[slot(k + 1)]--;
+            if (k == committed) return;
+            int parent = ring[slot(k)][state];
+            if (--children[slot(k)][parent] > 0) return;
+            k--;
+            state = parent;
+        }
+    }
+
+    /**
+     * @return the latest pending step where all survivors pass through a single state,
+     * or -1 when they do not meet before the committed steps.
+     */
+    private long coalescedStep() {
+        // every state on a surviving path has its predecessor on one, so the counts never decrease along the steps.
+        long k = committed;
+        while (k <= steps && liveCount(k) == 1) {
+            k++;
+        }
+        return k > committed ? k - 1 : -1;
+    }
+
+    private int liveCount(long k) {
+        return k == steps ? lastLive : live[slot(k + 1)];
+    }
+
+    /**
+     * @return the state of step k that every surviving path passes through, k a coalesced step.
+     */
+    private int liveState(long k) {
+        if (k == steps) {
+            return ViterbiDecoder.argMax(score);
+        }
+        int[] count = children[slot(k + 1)];
+        int state = 0;
+        while (count[state] == 0) {
+            state++;
+        }
+        return state;
+    }
+
+    /**
+     * @return the state at step to on the path ending in state at step from.
+     */
+    private int traceBack(int state, long from, long to) {
+        for (long k = from; k > to; k--) {
+            state = backpointer(k)[state];
+        }
+        return state;
+    }
+
+    /**
+     * hand out the states of steps committed to upTo, given the state at upTo, and drop their backpointers.
+     */
+    private int[] commit(long upTo, int state) {
+        if (upTo < committed) return NONE;
+        int[] path = new int[(int) (upTo - committed + 1)];
+        path[path.length - 1] = state;
+        for (long k = upTo; k > committed; k--) {
+            state = backpointer(k)[state];
+            path[(int) (k - 1 - committed)] = state;
+        }
+        // the backpointers of steps up to upTo are not needed anymore.
+        first = (int) ((first + upTo + 1 - base) % ring.length);
+        base = upTo + 1;
+        committed = upTo + 1;
+        return path;
+    }
+
+    private int[] backpointer(long step) {
+        return ring[slot(step)];
+    }
+
+    private int slot(long step) {
+        return (int) ((first + step - base) % ring.length);
+    }
+
+    /**
+     * @return the backpointer buffer of step steps + 1, reusing a dropped one when possible.
+     */
+    private int[] push() {
+        int held = (int) (steps + 1 - base);
+        if (held == ring.length) {
+            int[][] grownRing = new int[ring.length * 2][];
+            int[][] grownChildren = new int[ring.length * 2][];
+            int[] grownLive = new int[ring.length * 2];
+            for (int i = 0; i < ring.length; i++) {
+                grownRing[i] = ring[(first + i) % ring.length];
+                grownChildren[i] = children[(first + i) % ring.length];
+                grownLive[i] = live[(first + i) % ring.length];
+            }
+            ring = grownRing;
+            children = grownChildren;
+            live = grownLive;
+            first = 0;
+        }
+        int slot = (first + held) % ring.length;
+        if (ring[slot] == null) {
+            ring[slot] = new int[n];
+            children[slot] = new int[n];
+        }
+        return ring[slot];
+    }
+}
@@ -0,0 +1,227 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Forward-backward split over time, for offline smoothing of very long recorded runs.
+ * <p>
+ * One filtering step is linear up to normalization: alpha_t ~ A_t alpha_(t-1) with
+ * A_t = O(reading t) T', and the backward step is its transpose, beta_(t-1) ~ A_t' beta_t.
+ * The sequence is cut into chunks and each chunk's product F_c = A_end ... A_start is built
+ * independently (in parallel, kept normalized). A scan over the chunk operators then gives
+ * the forward message entering and the backward message leaving every chunk, and finally all
+ * chunks are filtered and smoothed concurrently from their boundary messages.
+ * <p>
+ * The chunk operators are dense N x N: every chunk holds 8 N^2 bytes, and building them
+ * takes up to N / 2 times the work of the sequential pass over the sparse model, spread over
+ * the threads of the pool. On one thread the split is 1.3 times slower than
+ * CompiledModel.forwardBackward for the 9 states of simple.maz, 15 times slower for 75
+ * states and 50 times slower for 143, so it only pays off when the pool has more than about
+ * N / 2 threads. Below that crossover, or when the chunk operators would not fit in the
+ * memory cap, forwardBackward runs the sequential CompiledModel.forwardBackward instead.
+ */
+public class ParallelSmoother {
+    /**
+     * default cap on the memory of all chunk operators together.
+     */
+    public static final long DEFAULT_OPERATOR_BYTES = 64L << 20;
+
+    private final CompiledModel model;
+    private final ForkJoinPool pool;
+    private final int chunkLength;
+    private final long maxOperatorBytes;
+
+    /**
+     * smoother on the common fork-join pool, chunk length chosen per sequence.
+     */
+    public ParallelSmoother(CompiledModel model) {
+        this(model, ForkJoinPool.commonPool(), 0);
+    }
+
+    /**
+     * @param chunkLength readings per chunk, 0 for four chunks per thread of pool.
+     */
+    public ParallelSmoother(CompiledModel model, ForkJoinPool pool, int chunkLength) {
+        this(model, pool, chunkLength, DEFAULT_OPERATOR_BYTES);
+    }
+
+    /**
+     * @param chunkLength      readings per chunk, 0 for four chunks per thread of pool.
+     * @param maxOperatorBytes the chunk operators may take at most this much memory, the
+     *                         sequential forward-backward runs when they would take more.
+     */
+    public ParallelSmoother(CompiledModel model, ForkJoinPool pool, int chunkLength, long maxOperatorBytes) {
+        if (chunkLength < 0) throw new IllegalArgumentException("chunk length must not be negative");
+        if (maxOperatorBytes <= 0) throw new IllegalArgumentException("operator memory must be positive");
+        this.model = model;
+        this.pool = pool;
+        this.chunkLength = chunkLength;
+        this.maxOperatorBytes = maxOperatorBytes;
+    }
+
+    /**
+     * @return whether forwardBackward splits a sequence of this many readings over time, rather
+     * than running the sequential forward-backward.
+     */
+    public boolean isParallel(int steps) {
+        return chunkCount(steps) > 1;
+    }
+
+    /**
+     * the number of chunks to split steps readings into, 1 when the split does not pay off
+     * (the pool has no more than N / 2 threads) or its operators do not fit in maxOperatorBytes.
+     */
+    private int chunkCount(int steps) {
+        int n = model.getTileNumber();
+        int parallelism = pool.getParallelism();
+        if (steps < 2 || 2L * parallelism <= n) return 1;
+        long operatorBytes = 8L * n * n;
+        long chunks = chunkLength > 0 ? (steps + (long) chunkLength - 1) / chunkLength : Math.min(steps, 4L * parallelism);
+        if (chunks * operatorBytes > maxOperatorBytes) return 1;
+        return (int) chunks;
+    }
+
+    /**
+     * the smoothed distributions, the same as CompiledModel.forwardBackward up to rounding;
+     * computed by that method when isParallel(sensorReadings.length) is false.
+     *
+     * @param prior          the prior probability
+     * @param sensorReadings the color sequence given by sensor.
+     * @return the distribution of steps 0 to sensorReadings.length.
+     */
+    public double[][] forwardBackward(double[] prior, char[] sensorReadings) {
+        int steps = sensorReadings.length;
+        int planned = chunkCount(steps);
+        if (planned < 2) return model.forwardBackward(prior, sensorReadings);
+        long start = System.nanoTime();
+        int n = model.getTileNumber();
+        int length = chunkLength > 0 ? chunkLength : (steps + planned - 1) / planned;
+        int chunks = (steps + length - 1) / length;
+
+        // chunk c covers readings [c * length, min((c + 1) * length, steps)), i.e. steps from + 1 to to.
+        double[][] operator = PoolTasks.runIn(pool, () -> IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> chunkOperator(sensorReadings, c * length, Math.min((c + 1) * length, steps)))
+                .toArray(double[][]::new));
+
+        // scan: forward message entering each chunk, backward message leaving it.
+        double[][] forwardIn = new double[chunks][];
+        double[][] backwardOut = new double[chunks][];
+        forwardIn[0] = prior.clone();
+        FilterKernels.normalize(forwardIn[0]);
+        for (int c = 1; c < chunks; c++) {
+            forwardIn[c] = new double[n];
+            applyColumns(operator[c - 1], forwardIn[c - 1], forwardIn[c], n);
+            FilterKernels.normalize(forwardIn[c]);
+        }
+        backwardOut[chunks - 1] = new double[n];
+        Arrays.fill(backwardOut[chunks - 1], 1);
+        for (int c = chunks - 1; c > 0; c--) {
+            backwardOut[c - 1] = new double[n];
+            applyTransposed(operator[c], backwardOut[c], backwardOut[c - 1], n);
+            FilterKernels.normalize(backwardOut[c - 1]);
+        }
+
+        double[][] smoothDistribution = new double[steps + 1][];
+        PoolTasks.runIn(pool, () -> {
+            IntStream.range(0, chunks).parallel().forEach(c -> smoothChunk(sensorReadings,
+                    c * length, Math.min((c + 1) * length, steps), forwardIn[c], backwardOut[c], smoothDistribution));
+            return null;
+        });
+        model.getMetrics().recordTime(InferenceMetrics.FORWARD_BACKWARD, System.nanoTime() - start);
+        return smoothDistribution;
+    }
+
+    /**
+     * F = A_(to - 1) ... A_from for readings [from, to), column-major: column j is F applied
+     * to state j, scaled so all entries sum to 1.
+     */
+    private double[] chunkOperator(char[] sensorReadings, int from, int to) {
+        int n = model.getTileNumber();
+        TransitionModel T = model.getTransitionModel();
+        SensorModel O = model.getSensorModel();
+        double[] f = new double[n * n];
+        for (int j = 0; j < n; j++) {
+            f[j * n + j] = 1;
+        }
+        double[] column = new double[n];
+        double[] predicted = new double[n];
+        for (int t = from; t < to; t++) {
+            double[] e = O.getEmission(sensorReadings[t]);
+            double sum = 0;
+            for (int j = 0; j < n; j++) {
+                System.arraycopy(f, j * n, column, 0, n);
+                T.predict(column, predicted);
+                for (int i = 0; i < n; i++) {
+                    double v = predicted[i] * e[i];
+                    f[j * n + i] = v;
+                    sum += v;
+                }
+            }
+            if (sum > 0) {
+                double inverse = 1.0 / sum;
+                for (int k = 0; k < f.length; k++) {
+                    f[k] *= inverse;
+                }
+            }
+        }
+        return f;
+    }
+
+    /**
+     * out = F v for a column-major F.
+     */
+    private static void applyColumns(double[] f, double[] v, double[] out, int n) {
+        Arrays.fill(out, 0);
+        for (int j = 0; j < n; j++) {
+            double vj = v[j];
+            if (vj == 0) continue;
+            for (int i = 0; i < n; i++) {
+                out[i] += f[j * n + i] * vj;
+            }
+        }
+    }
+
+    /**
+     * out = F' v for a column-major F.
+     */
+    private static void applyTransposed(double[] f, double[] v, double[] out, int n) {
+        for (int j = 0; j < n; j++) {
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += f[j * n + i] * v[i];
+            }
+            out[j] = sum;
+        }
+    }
+
+    /**
+     * filter readings [from, to) from forwardIn, then smooth them backwards from backwardOut,
+     * writing steps from + 1 to to of out.
+     */
+    private void smoothChunk(char[] sensorReadings, int from, int to, double[] forwardIn, double[] backwardOut, double[][] out) {
+        int n = model.getTileNumber();
+        TransitionModel T = model.getTransitionModel();
+        SensorModel O = model.getSensorModel();
+        double[] previous = forwardIn;
+        for (int t = from; t < to; t++) {
+            out[t + 1] = new double[n];
+            FilterKernels.forward(T, O, previous, sensorReadings[t], out[t + 1]);
+            previous = out[t + 1];
+        }
+        double[] message = backwardOut.clone();
+        double[] nextMessage = new double[n];
+        double[] scratch = new double[n];
+        for (int t = to; t > from; t--) {
+            FilterKernels.multiplyNormalize(out[t], message, out[t]);
+            FilterKernels.backward(T, O, message, sensorReadings[t - 1], scratch, nextMessage);
+            FilterKernels.normalize(nextMessage);
+            double[] swap = message;
+            message = nextMessage;
+            nextMessage = swap;
+        }
+        if (from == 0) {
+            out[0] = new double[n];
+            FilterKernels.multiplyNormalize(forwardIn, message, out[0]);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Approximate localisation with a set of particles, for mazes where even a sparse exact
+ * belief costs too much per reading. Each particle is a cell of the maze and moves with
+ * the same random walk as the transition model: it stays put with the stay probability of
+ * the model parameters, otherwise it picks one of the four directions and stays in place
+ * when that runs into a wall. Readings weight the particles with the sensor probabilities
+ * of the same parameters, and low-variance (systematic) resampling draws a new
+ * set once the effective sample size drops below a fraction of the particles. A reading no
+ * particle explains leaves no weight at all; the particles are then spread over the tiles
+ * again and weighted by that reading, like a reset.
+ * <p>
+ * Per reading the cost is O(particles), independent of the size of the maze.
+ */
+public class ParticleFilter implements LocalisationFilter {
+    private static final int[][] MOVES = {Maze.NORTH, Maze.EAST, Maze.SOUTH, Maze.WEST};
+
+    private final Maze maze;
+    private final StateIndex index;
+    private final ModelParameters parameters;
+    private final int particleNumber;
+    private final double resampleThreshold;
+    private final long seed;
+
+    private SplittableRandom random;
+    private int[] cells;        // cell (y * width + x) of every particle
+    private int[] nextCells;    // resampling buffer
+    private final double[] weights;
+    private final double[] stateWeights;    // zero between calls of getEstimate
+    private final int[] touched;
+    private long steps;
+    private InferenceMetrics metrics = InferenceMetrics.NOOP;
+
+    /**
+     * particle filter with the default model parameters.
+     *
+     * @param particleNumber number of particles.
+     * @param seed           random seed, the same seed and readings give the same estimates.
+     */
+    public ParticleFilter(Maze maze, StateIndex index, int particleNumber, long seed) {
+        this(maze, index, ModelParameters.DEFAULT, particleNumber, 0.5, seed);
+    }
+
+    /**
+     * @param parameters        sensor and motion probabilities.
+     * @param resampleThreshold resample when the effective sample size falls below
+     *                          this fraction of particleNumber, 1 to resample every step.
+     */
+    public ParticleFilter(Maze maze, StateIndex index, ModelParameters parameters, int particleNumber, double resampleThreshold, long seed) {
+        if (particleNumber <= 0) throw new IllegalArgumentException("need at least one particle");
+        if (index.size() == 0) throw new IllegalArgumentException("maze has no tiles");
+        this.maze = maze;
+        this.index = index;
+        this.parameters = parameters;
+        this.particleNumber = particleNumber;
+        this.resampleThreshold = resampleThreshold;
+        this.seed = seed;
+        cells = new int[particleNumber];
+        nextCells = new int[particleNumber];
+        weights = new double[particleNumber];
+        stateWeights = new double[index.size()];
+        touched = new int[particleNumber];
+        reset();
+    }
+
+    /**
+     * particle filter with the parameters of the compiled model, so it tracks the same model as the exact filters.
+     */
+    public ParticleFilter(CompiledModel model, int particleNumber, long seed) {
+        this(model.getMaze(), model.getIndex(), model.getParameters(), particleNumber, 0.5, seed);
+    }
+
+    /**
+     * spread the particles uniformly over the tiles again.
+     */
+    @Override
+    public void reset() {
+        random = new SplittableRandom(seed);
+        spread();
+        Arrays.fill(weights, 1.0 / particleNumber);
+        steps = 0;
+    }
+
+    /**
+     * put every particle on a tile drawn uniformly.
+     */
+    private void spread() {
+        int n = index.size();
+        for (int p = 0; p < particleNumber; p++) {
+            int state = random.nextInt(n);
+            cells[p] = index.getY(state) * maze.width + index.getX(state);
+        }
+    }
+
+    @Override
+    public void update(int[] action, char color) {
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        int width = maze.width;
+        double hit = parameters.getSensorHit();
+        double miss = parameters.getSensorMiss();
+        double sum = 0;
+        for (int p = 0; p < particleNumber; p++) {
+            // motion, the same random walk as the transition model:
+            int x = cells[p] % width;
+            int y = cells[p] / width;
+            if (!parameters.sampleStay(random)) {
+                int[] move = MOVES[random.nextInt(MOVES.length)];
+                if (maze.isLegal(x + move[0], y + move[1])) {
+                    x += move[0];
+                    y += move[1];
+                    cells[p] = y * width + x;
+                }
+            }
+            // sensor, the same probabilities as the sensor model:
+            weights[p] *= maze.getChar(x, y) == color ? hit : miss;
+            sum += weights[p];
+        }
+        boolean lost = !(sum > 0) || Double.isInfinite(sum);
+        if (lost) {
+            // no particle explains the reading: start over from the uniform prior, weighted by the reading.
+            spread();
+            sum = 0;
+            for (int p = 0; p < particleNumber; p++) {
+                weights[p] = maze.getChar(cells[p] % width, cells[p] / width) == color ? hit : miss;
+                sum += weights[p];
+            }
+            if (!(sum > 0) || Double.isInfinite(sum)) {
+                Arrays.fill(weights, 1.0);
+                sum = particleNumber;
+            }
+        }
+
+        double squares = 0;
+        for (int p = 0; p < particleNumber; p++) {
+            weights[p] /= sum;
+            squares += weights[p] * weights[p];
+        }
+        boolean resampled = 1.0 / squares < resampleThreshold * particleNumber;
+        if (resampled) {
+            resample();
+        }
+        steps++;
+        if (metrics.isEnabled()) {
+            metrics.recordTime(InferenceMetrics.PARTICLE_UPDATE, System.nanoTime() - start);
+            metrics.increment(InferenceMetrics.STEPS, 1);
+            if (resampled) metrics.increment(InferenceMetrics.RESAMPLES, 1);
+            if (lost) metrics.increment(InferenceMetrics.UNDERFLOWS, 1);
+        }
+    }
+
+    /**
+     * low-variance resampling: one random offset, then particleNumber evenly spaced pointers.
+     */
+    private void resample() {
+        double step = 1.0 / particleNumber;
+        double pointer = random.nextDouble() * step;
+        double cumulative = weights[0];
+        int source = 0;
+        for (int p = 0; p < particleNumber; p++) {
+            while (pointer > cumulative && source < particleNumber - 1) {
+                cumulative += weights[++source];
+            }
+            nextCells[p] = cells[source];
+            pointer += step;
+        }
+        int[] swap = cells;
+        cells = nextCells;
+        nextCells = swap;
+        Arrays.fill(weights, step);
+    }
+
+    @Override
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @param metrics sink for update timings and counters, NOOP by default.
+     */
+    public void setMetrics(InferenceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getParticleNumber() {
+        return particleNumber;
+    }
+
+    /**
+     * @return the state holding the largest particle weight.
+     */
+    @Override
+    public int getEstimate() {
+        // add up the weight per state, only touching the states that hold particles.
+        int count = 0;
+        for (int p = 0; p < particleNumber; p++) {
+            int state = index.stateAt(cells[p] % maze.width, cells[p] / maze.width);
+            if (stateWeights[state] == 0) touched[count++] = state;
+            stateWeights[state] += weights[p];
+        }
+        int best = touched[0];
+        for (int k = 0; k < count; k++) {
+            int state = touched[k];
+            if (stateWeights[state] > stateWeights[best] || (stateWeights[state] == stateWeights[best] && state < best)) {
+                best = state;
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            stateWeights[touched[k]] = 0;
+        }
+        return best;
+    }
+
+    /**
+     * @param out receives the particle weight of every state, length index.size().
+     */
+    @Override
+    public double[] getBelief(double[] out) {
+        Arrays.fill(out, 0);
+        for (int p = 0; p < particleNumber; p++) {
+            out[index.stateAt(cells[p] % maze.width, cells[p] / maze.width)] += weights[p];
+        }
+        return out;
+    }
+
+    /**
+     * run the particle filter and the exact filter side by side on the same readings.
+     *
+     * @return the total variation distance between the two beliefs after each reading.
+     */
+    public static double[] compareWithExact(CompiledModel model, int particleNumber, char[] readings, long seed) {
+        ParticleFilter particles = new ParticleFilter(model, particleNumber, seed);
+        BeliefTracker exact = model.newTracker(0);
+        double[] belief = new double[model.getTileNumber()];
+        double[] drift = new double[readings.length];
+        for (int i = 0; i < readings.length; i++) {
+            particles.update(Maze.NO_MOVE, readings[i]);
+            double[] truth = exact.observe(Maze.NO_MOVE, readings[i]);
+            particles.getBelief(belief);
+            double distance = 0;
+            for (int j = 0; j < belief.length; j++) {
+                distance += Math.abs(belief[j] - truth[j]);
+            }
+            drift[i] = distance / 2;
+        }
+        return drift;
+    }
+
+    public static void main(String[] args) {
+        CompiledModel model = CompiledModel.compile(MazeGenerator.generate(20, 20, 42));
+        char[] readings = MazeGenerator.randomReadings(200, 7);
+        for (int particles : new int[]{100, 1000, 10000, 100000}) {
+            double[] drift = compareWithExact(model, particles, readings, 1);
+            double mean = 0, max = 0;
+            for (double d : drift) {
+                mean += d / drift.length;
+                max = Math.max(max, d);
+            }
+            System.out.printf("%7d particles: mean drift %.4f, max drift %.4f%n", particles, mean, max);
+        }
+    }
+}
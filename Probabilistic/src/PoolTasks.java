@@ -0,0 +1,28 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs work on a given fork-join pool instead of the common one.
+ */
+class PoolTasks {
+
+    /**
+     * run task on pool and wait for it. A parallel stream started inside the task runs on
+     * the threads of pool, which is how the engines keep their parallelism to their own pool.
+     *
+     * @return the result of task.
+     * @throws RuntimeException when the task fails, with its exception as the cause, or when the
+     *                          waiting thread is interrupted, with its interrupt flag set again.
+     */
+    static <T> T runIn(ForkJoinPool pool, Callable<T> task) {
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted waiting for a pool task", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("pool task failed", e.getCause());
+        }
+    }
+}
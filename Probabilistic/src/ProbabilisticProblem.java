@@ -1,79 +1,78 @@
-import javafx.util.Pair;
-
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.function.IntFunction;
 
 /**
  * Created by gejing on 2/27/16.
  */
 public class ProbabilisticProblem {
-    private double[][] T;  //transition model
-    private double[][] Or; //sensor model for red
-    private double[][] Og; //sensor model for green
-    private double[][] Ob; //sensor model for blue
-    private double[][] Oy; //sensor model for yellow
+    private final CompiledModel model; //transition model and sensor model of the maze, shared and read only.
+    private final IntFunction<BeliefHistory> histories; //creates the storage of the distributions below.
+    private SplittableRandom random = new SplittableRandom(); //start position and sensor noise.
 
     private Maze maze;
     private int tileNumber;
 
-    Map<Integer, Pair<Integer, Integer>> index = new HashMap<>();
+    StateIndex index;
 
-    private List<Pair<Integer, Integer>> actualPath = new ArrayList<>(); //record actual path the robot past.
-    private List<Pair<Integer, Integer>> likelyPath = new ArrayList<>(); //record most likely path the robot past.
-    private List<Pair<Integer, Integer>> viterbiPath = new ArrayList<>(); //record most likely path the robot past.
-    private double[][] probabilityDistribution;                          //probability distribution of each state.
-    private double[][] smoothyDistribution;                              //probability distribution generated by forward-backward algorithm.
+    private int[] actualPath = new int[0];      //record actual path (states) the robot past.
+    private int[] likelyPath = new int[0];      //record most likely path the robot past.
+    private int[] viterbiPath = new int[0];     //record most likely path the robot past.
+    private BeliefHistory probabilityDistribution; //probability distribution of each state.
+    private BeliefHistory smoothyDistribution;     //probability distribution generated by forward-backward algorithm.
+    private double logLikelihood;                  //log probability of the sensor readings of the last run.
 
     /**
      * do the follow things:
      * 1. get maze, count the number of tiles.
      * 2. generate the matrix of transition model and sensor model.
+     * The model of simple.maz comes from the shared registry, so it is built once per process.
      */
     public ProbabilisticProblem() {
-        maze = Maze.readFromFile("simple.maz");
-        if (maze == null) throw new RuntimeException("maze is null");
-        int indexNumber = 0;
-        for (int y = 0; y < maze.height; y++) {
-            for (int x = 0; x < maze.width; x++) {
-                if (maze.isLegal(x, y)) {
-                    indexNumber++;
-                    index.put(indexNumber, new Pair<>(x, y));
-                }
-            }
-        }
-        tileNumber = indexNumber;
+        this(ModelRegistry.shared(), "simple.maz");
+    }
+
+    /**
+     * a single run on the model of mazeFile, loaded or shared through registry.
+     */
+    public ProbabilisticProblem(ModelRegistry registry, String mazeFile) {
+        this(requireModel(registry.get(mazeFile), mazeFile));
+    }
+
+    /**
+     * a single run on an already compiled model, the model can be shared with other runs.
+     *
+     * @param model the compiled maze.
+     */
+    public ProbabilisticProblem(CompiledModel model) {
+        this(model, BeliefHistory.DENSE);
+    }
 
-        T = new double[indexNumber][];
-        Ob = new double[indexNumber][];
-        Og = new double[indexNumber][];
-        Or = new double[indexNumber][];
-        Oy = new double[indexNumber][];
+    /**
+     * @param model     the compiled maze.
+     * @param histories storage of the per step distributions, e.g. BeliefHistory.sparse(1e-6) for long runs.
+     */
+    public ProbabilisticProblem(CompiledModel model, IntFunction<BeliefHistory> histories) {
+        this.model = model;
+        this.histories = histories;
+        this.maze = model.getMaze();
+        this.tileNumber = model.getTileNumber();
+        this.index = model.getIndex();
+    }
 
-        for (int i = 0; i < indexNumber; i++) {
-            Pair<Integer, Integer> position1 = index.get(i + 1);
-            T[i] = new double[indexNumber];
-            Or[i] = new double[indexNumber];
-            Og[i] = new double[indexNumber];
-            Ob[i] = new double[indexNumber];
-            Oy[i] = new double[indexNumber];
+    private static CompiledModel requireModel(CompiledModel model, String mazeFile) {
+        if (model == null) throw new RuntimeException("cannot read maze " + mazeFile);
+        return model;
+    }
 
-            for (int j = 0; j < indexNumber; j++) {
-                //generate transition model:
-                Pair<Integer, Integer> position2 = index.get(j + 1);
-                T[i][j] = getTransitionProbability(position1, position2);
-                //generate sensor model for colors red, green, blue, yellow:
-                if (i == j) {
-                    Or[i][j] = getSensorProbability(position1, 'r');
-                    Og[i][j] = getSensorProbability(position1, 'g');
-                    Ob[i][j] = getSensorProbability(position1, 'b');
-                    Oy[i][j] = getSensorProbability(position1, 'y');
-                } else {
-                    Or[i][j] = 0;
-                    Og[i][j] = 0;
-                    Ob[i][j] = 0;
-                    Oy[i][j] = 0;
-                }
-            }
-        }
+    /**
+     * make the following runs reproducible: the same seed and motions give the same report.
+     *
+     * @param seed seed of the start position and the sensor noise.
+     */
+    public void setSeed(long seed) {
+        this.random = new SplittableRandom(seed);
     }
 
     /**
@@ -84,39 +83,62 @@ public class ProbabilisticProblem {
      * @param steps motions for robot.
      */
     public void doMoves(int[][] steps) {
-        probabilityDistribution = new double[steps.length + 1][];
-        double[] firstDistribution = new double[tileNumber];
-        for (int i = 0; i < tileNumber; i++) {
-            firstDistribution[i] = 1.0 / tileNumber;
-        }
-        probabilityDistribution[0] = firstDistribution;
+        long start = System.nanoTime();
+        closeHistories();
+        probabilityDistribution = histories.apply(tileNumber);
+        smoothyDistribution = histories.apply(tileNumber);
+        double[] firstDistribution = model.uniformPrior();
+        double[] distribution = firstDistribution.clone();
+        double[] nextDistribution = new double[tileNumber];
+        probabilityDistribution.append(distribution);
 
         //choose initial position randomly:
-        int initPosition = new Random().nextInt(tileNumber) + 1;
-        Pair<Integer, Integer> position = index.get(initPosition);
-        actualPath.add(position);
+        int position = random.nextInt(tileNumber);
+        actualPath = new int[steps.length + 1];
+        actualPath[0] = position;
 
         char[] sensorReadings = new char[steps.length];
+        double[] scale = new double[steps.length + 1];
+        scale[0] = 1;
 
         // move the robot and generate probability distribution by forward algorithm.
         for (int i = 0; i < steps.length; i++) {
-            if (maze.isLegal(position.getKey() + steps[i][0], position.getValue() + steps[i][1])) {
-                position = new Pair<>(position.getKey() + steps[i][0], position.getValue() + steps[i][1]);
+            int next = index.neighbour(position, steps[i]);
+            if (next >= 0) {
+                position = next;
             }
-            actualPath.add(position);
+            actualPath[i + 1] = position;
             sensorReadings[i] = getTileColor(position);
-            probabilityDistribution[i + 1] = forward(probabilityDistribution[i], getTileColor(position));
+            scale[i + 1] = forward(distribution, sensorReadings[i], nextDistribution);
+            probabilityDistribution.append(nextDistribution);
+            double[] swap = distribution;
+            distribution = nextDistribution;
+            nextDistribution = swap;
         }
 
-        // get smoothy probability distribution by forward-backward algorithm.
-        this.smoothyDistribution = forwardBackward(firstDistribution, sensorReadings);
+        // get smoothy probability distribution by forward-backward algorithm, reusing the filter distribution.
+        this.logLikelihood = model.forwardBackward(sensorReadings, probabilityDistribution, scale, smoothyDistribution);
         // get most likely path using smoothy distribution:
         this.likelyPath = getMostLikelyPath(this.smoothyDistribution);
-        int[] path = viterbi(firstDistribution, sensorReadings);
-        this.viterbiPath.add(index.get(1));
-        for (int aPath : path) {
-            this.viterbiPath.add(index.get(aPath));
-        }
+        this.viterbiPath = viterbi(firstDistribution, sensorReadings);
+        model.getMetrics().recordTime(InferenceMetrics.DO_MOVES, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the log likelihood of the sensor readings of the last doMoves.
+     */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    /**
+     * Create an online tracker on this maze, starting from the uniform distribution.
+     *
+     * @param lag window of the fixed-lag smoother, 0 to only filter.
+     * @return a tracker taking one observation at a time.
+     */
+    public BeliefTracker newTracker(int lag) {
+        return model.newTracker(lag);
     }
 
     /**
@@ -132,262 +154,106 @@ public class ProbabilisticProblem {
      * @param motions
      */
     public void printReport(String motions) {
-        System.out.println("the maze this test used :");
-        System.out.println(maze);
-        System.out.println("the motions robot taken :\n" + motions);
-        System.out.println("the actual path robot move is:");
-        for (Pair<Integer, Integer> p : actualPath) {
-            System.out.print("(" + p.getKey() + "," + p.getValue() + ")");
-        }
-        System.out.println("\nthe most likely point chose from smoothy distribution is :");
-        for (Pair<Integer, Integer> p : likelyPath) {
-            System.out.print("(" + p.getKey() + "," + p.getValue() + ")");
-        }
-        System.out.println("\nthe viterbi path is:");
-        for (Pair<Integer, Integer> p : viterbiPath) {
-            System.out.print("(" + p.getKey() + "," + p.getValue() + ")");
-        }
-        System.out.println("\n\nthe smoothy distribution is:");
-        printDistribution(this.smoothyDistribution);
-        System.out.println("\nthe filter distribution is:");
-        printDistribution(this.probabilityDistribution);
-    }
-
-    private void printDistribution(double[][] distribution) {
-        for (int i = 0; i < distribution[0].length; i++) {
-            System.out.print("_____________");
-        }
-        System.out.println();
-        System.out.printf("| steps |");
-        for (int i = 1; i <= distribution[0].length; i++) {
-            System.out.printf("   (%d,%d)   |", index.get(i).getKey(), index.get(i).getValue());
-        }
-        System.out.println();
-        for (int i = 0; i < distribution.length; i++) {
-            System.out.printf("| step%d | ", i);
-            for (int j = 0; j < distribution[0].length; j++) {
-                System.out.printf("%.7f | ", distribution[i][j]);
-            }
-            System.out.println();
+        long start = System.nanoTime();
+        try {
+            TextReportSink sink = TextReportSink.console();
+            sink.println("the maze this test used :");
+            sink.println(maze.toString());
+            sink.println("the motions robot taken :\n" + motions);
+            sink.println("the actual path robot move is:\n" + pathToString(actualPath));
+            sink.println("the most likely point chose from smoothy distribution is :\n" + pathToString(likelyPath));
+            sink.println("the viterbi path is:\n" + pathToString(viterbiPath));
+            sink.println("\nthe smoothy distribution is:");
+            writeDistributions(sink);
+            sink.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        model.getMetrics().recordTime(InferenceMetrics.REPORT, System.nanoTime() - start);
     }
 
     /**
-     * Choose the largest probability from the distribution at each time step
-     *
-     * @param distribution the probability distribution
-     * @return the list of positions with the largest probability.
+     * stream the smoothy distribution and then the filter distribution into sink.
      */
-    private List<Pair<Integer, Integer>> getMostLikelyPath(double[][] distribution) {
-        List<Pair<Integer, Integer>> path = new ArrayList<>();
-
-        for (int i = 0; i < distribution.length; i++) {
-            int maxIndex = 0;
-            double maxValue = 0;
-            for (int j = 0; j < distribution[0].length; j++) {
-                if (distribution[i][j] > maxValue) {
-                    maxValue = distribution[i][j];
-                    maxIndex = j;
-                }
-            }
-            path.add(this.index.get(maxIndex + 1));
-        }
-
-        return path;
+    public void writeDistributions(ReportSink sink) throws IOException {
+        sink.write("smoothy", index, this.smoothyDistribution);
+        sink.println("\nthe filter distribution is:");
+        sink.write("filter", index, this.probabilityDistribution);
     }
 
     /**
-     * the forward-backward algorithm described in the book.
-     *
-     * @param prior          the prior probability
-     * @param sensorReadings the color sequence given by sensor.
-     * @return the distribution
+     * release the distributions of the last run, needed for histories backed by files.
      */
-    private double[][] forwardBackward(double[] prior, char[] sensorReadings) {
-        double[][] forwardDistribution = new double[sensorReadings.length + 1][];
-        double[][] smoothDistribution = new double[sensorReadings.length + 1][];
-        double[] backwardMessage = new double[prior.length];
-
-        //initial forward msg and backward msg:
-        forwardDistribution[0] = prior;
-        for (int i = 0; i < backwardMessage.length; i++) {
-            backwardMessage[i] = 1;
+    public void closeHistories() {
+        try {
+            if (probabilityDistribution != null) probabilityDistribution.close();
+            if (smoothyDistribution != null) smoothyDistribution.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        for (int i = 0; i < sensorReadings.length; i++) {
-            forwardDistribution[i + 1] = forward(forwardDistribution[i], sensorReadings[i]);
-        }
-
-        for (int i = sensorReadings.length; i > 0; i--) {
-            smoothDistribution[i] = MatrixTools.vectorNormalize(MatrixTools.vectorMultiple(forwardDistribution[i], backwardMessage));
-            backwardMessage = backward(backwardMessage, sensorReadings[i - 1]);
-        }
-        smoothDistribution[0] = new double[prior.length];
-        return smoothDistribution;
-    }
-
-    /**
-     * the filter algorithm looking forward from the first position.
-     *
-     * @param lastOne the probability of the prior position.
-     * @param color   the color given by sensor in this state.
-     * @return the probability of each state in current step.
-     */
-    private double[] forward(double[] lastOne, char color) {
-        double[][] O = getSensorModelByColor(color);
-        double[][] line = new double[1][];
-        line[0] = lastOne;
-        double[][] result = MatrixTools.multiple(MatrixTools.multiple(O, MatrixTools.transpose(T)), MatrixTools.transpose(line));
-        return MatrixTools.transpose(MatrixTools.normalize(result))[0];
+        probabilityDistribution = null;
+        smoothyDistribution = null;
     }
 
-    /**
-     * @param bv    a representation of the backward message, initially all 1s
-     * @param color evidence value.
-     * @return
-     */
-    private double[] backward(double[] bv, char color) {
-        double[][] O = getSensorModelByColor(color);
-        double[][] line = new double[1][];
-        line[0] = bv;
-        double[][] result = MatrixTools.multiple(MatrixTools.multiple(T, O), MatrixTools.transpose(line));
-        return MatrixTools.transpose(result)[0];
+    private String pathToString(int[] path) {
+        StringBuilder s = new StringBuilder(path.length * 6);
+        for (int state : path) {
+            s.append(index.toString(state));
+        }
+        return s.toString();
     }
 
     /**
-     * calculate the transition probability from p1 to p2.
+     * Choose the largest probability from the distribution at each time step
      *
-     * @param p1 position 1
-     * @param p2 position 2
-     * @return probability
+     * @param distribution the probability distribution
+     * @return the states with the largest probability.
      */
-    private double getTransitionProbability(Pair<Integer, Integer> p1, Pair<Integer, Integer> p2) {
-        int x1 = p1.getKey(),
-                y1 = p1.getValue(),
-                x2 = p2.getKey(),
-                y2 = p2.getValue();
-        int walls = 0;
-        if (!maze.isLegal(x1 + 1, y1)) walls++;
-        if (!maze.isLegal(x1 - 1, y1)) walls++;
-        if (!maze.isLegal(x1, y1 + 1)) walls++;
-        if (!maze.isLegal(x1, y1 - 1)) walls++;
-
-        if (Math.abs(x2 - x1) + Math.abs(y2 - y1) == 1) return 0.25;
-        if (p1.equals(p2)) return walls / 4.0;
-        return 0;
+    private int[] getMostLikelyPath(BeliefHistory distribution) {
+        return CompiledModel.getMostLikelyStates(distribution);
     }
 
     /**
-     * calculate the sensor probability
+     * the filter algorithm looking forward from the first position.
      *
-     * @param position
-     * @param color
-     * @return
+     * @param lastOne the probability of the prior position.
+     * @param color   the color given by sensor in this state.
+     * @param out     receives the probability of each state in current step.
+     * @return the normalizer of the step.
      */
-    private double getSensorProbability(Pair<Integer, Integer> position, char color) {
-        int x = position.getKey();
-        int y = position.getValue();
-        char trueColor = maze.getChar(x, y);
-        if (trueColor == color) {
-            return 0.88;
-        }
-        return 0.04;
+    private double forward(double[] lastOne, char color, double[] out) {
+        return model.forward(lastOne, color, out);
     }
 
     /**
-     * simulate the robot's sensor, give the true color 88%, other color each 4%
+     * simulate the robot's sensor with the model parameters, by default the true color 88%, other color each 4%
      *
-     * @param position the position robot on
+     * @param position the state robot on
      * @return color
      */
-    private char getTileColor(Pair<Integer, Integer> position) {
-        List<Character> colors = new ArrayList<>();
-        colors.add('r');
-        colors.add('g');
-        colors.add('b');
-        colors.add('y');
-        int rand = new Random().nextInt(100);
-        char trueColor = maze.getChar(position.getKey(), position.getValue());
-        int i = colors.indexOf(trueColor);
-        if (rand > 87 && rand < 92) {
-            i = (i + 1) % 4;
-        } else if (rand > 91 && rand < 96) {
-            i = (i + 2) % 4;
-        } else if (rand > 95 && rand < 100) {
-            i = (i + 3) % 4;
-        }
-        return colors.get(i);
-    }
-
-    private double[][] getSensorModelByColor(char color) {
-        switch (color) {
-            case 'r':
-                return Or;
-            case 'g':
-                return Og;
-            case 'b':
-                return Ob;
-            case 'y':
-                return Oy;
-            default:
-                throw new RuntimeException("wrong color");
-        }
+    private char getTileColor(int position) {
+        return model.getParameters().sampleReading(maze.getChar(index.getX(position), index.getY(position)), random);
     }
 
     /**
-     * viterbi algorithm described in the book.
+     * viterbi algorithm described in the book, computed in log space by ViterbiDecoder.
      *
      * @param prior          the initial probability vector.
      * @param sensorReadings the color sequence read from sensor.
-     * @return the most likely path.
+     * @return the most likely path, the state of every step starting at step 0.
      */
     private int[] viterbi(double[] prior, char[] sensorReadings) {
-        double[][] maxProb = new double[tileNumber][sensorReadings.length];
-        int[][] maxArg = new int[tileNumber][sensorReadings.length];
-
-        for (int i = 0; i < prior.length; i++) {
-            maxProb[i][0] = prior[i] * getSensorModelByColor(sensorReadings[0])[i][i];
-            maxArg[i][0] = 0;
-        }
-
-        for (int i = 1; i < sensorReadings.length; i++) {
-            for (int j = 0; j < prior.length; j++) {
-                double maxValue = 0;
-                int maxIndex = 0;
-                for (int k = 0; k < prior.length; k++) {
-                    double temp = maxProb[k][i - 1] * T[k][j] * getSensorModelByColor(sensorReadings[i])[j][j];
-                    if (temp > maxValue) {
-                        maxValue = temp;
-                        maxIndex = k;
-                    }
-                }
-
-                maxProb[j][i] = maxValue;
-                maxArg[j][i] = maxIndex;
-            }
-        }
-
-        int[] result = new int[sensorReadings.length];
-        double maxValue = 0;
-        int maxIndex = 0;
-        for (int i = 0; i < prior.length; i++) {
-            if (maxProb[i][sensorReadings.length - 1] > maxValue) {
-                maxValue = maxProb[i][sensorReadings.length - 1];
-                maxIndex = i;
-            }
-        }
-        result[result.length - 1] = maxIndex + 1;
-        for (int i = result.length - 1; i > 0; i--) {
-            result[i - 1] = maxArg[result[i] - 1][i] + 1;
-        }
-
-        return result;
+        return model.viterbi(prior, sensorReadings);
     }
 
     public static void main(String[] args) {
-        ProbabilisticProblem probabilisticProblem = new ProbabilisticProblem();
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        ProbabilisticProblem probabilisticProblem = new ProbabilisticProblem(CompiledModel.compile(Maze.readFromFile("simple.maz"), metrics));
         int[][] steps = {Maze.EAST, Maze.SOUTH, Maze.WEST, Maze.WEST, Maze.NORTH, Maze.EAST, Maze.SOUTH, Maze.WEST, Maze.WEST, Maze.NORTH};
         probabilisticProblem.doMoves(steps);
         probabilisticProblem.printReport("eswwneswwn");
+        probabilisticProblem.closeHistories();
+        System.out.println("\ntimings:");
+        System.out.print(metrics.report());
     }
 }
@@ -0,0 +1,99 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Destination of per step distributions. Rows are handed over one at a time as they
+ * are produced and written out straight away, a sink never keeps the whole table.
+ * <p>
+ * A report is a sequence of begin, any number of row calls, end; several reports may
+ * go to the same sink before it is closed.
+ */
+public interface ReportSink extends Closeable {
+
+    /**
+     * start a new table.
+     *
+     * @param title name of the distribution, e.g. "filter".
+     * @param index numbering of the states, for column labels.
+     */
+    void begin(String title, StateIndex index) throws IOException;
+
+    /**
+     * @param step         time step of the row.
+     * @param distribution probability of every state, only read during the call.
+     */
+    void row(int step, double[] distribution) throws IOException;
+
+    /**
+     * finish the current table.
+     */
+    void end() throws IOException;
+
+    /**
+     * write a line of free text between tables, e.g. a report heading.
+     * Sinks whose format has no room for text, such as CSV or binary, drop it.
+     */
+    default void println(String text) throws IOException {
+    }
+
+    /**
+     * write a whole table.
+     */
+    default void write(String title, StateIndex index, double[][] distribution) throws IOException {
+        begin(title, index);
+        for (int i = 0; i < distribution.length; i++) {
+            row(i, distribution[i]);
+        }
+        end();
+    }
+
+    /**
+     * write a whole table, reading the rows of history one at a time.
+     */
+    default void write(String title, StateIndex index, BeliefHistory history) throws IOException {
+        double[] row = new double[history.getStateNumber()];
+        begin(title, index);
+        for (int i = 0; i < history.size(); i++) {
+            row(i, history.get(i, row));
+        }
+        end();
+    }
+
+    /**
+     * append v with 7 decimals, the same digits as %.7f, without a Formatter.
+     * <p>
+     * %.7f rounds half up the shortest decimal form of v (Double.toString), not the binary
+     * value. Rounding v * 1e7 gives the same digits unless that product is close to a half,
+     * where the decimal form decides; those values, and anything outside [0, 1), take the slow path.
+     */
+    static void appendFixed7(StringBuilder s, double v) {
+        if (!((v > 0 || Double.doubleToRawLongBits(v) == 0) && v < 1)) {
+            appendFixed7Exact(s, v);
+            return;
+        }
+        double product = v * 1e7;
+        double fraction = product - Math.floor(product);
+        if (Math.abs(fraction - 0.5) < 1e-6) {
+            appendFixed7Exact(s, v);
+            return;
+        }
+        long scaled = Math.round(product);
+        long whole = scaled / 10_000_000;
+        long digits = scaled % 10_000_000;
+        s.append(whole).append('.');
+        for (long digit = 1_000_000; digit > digits && digit > 1; digit /= 10) {
+            s.append('0');
+        }
+        s.append(digits);
+    }
+
+    private static void appendFixed7Exact(StringBuilder s, double v) {
+        if (v == 0 || Double.isNaN(v) || Double.isInfinite(v)) {
+            s.append(String.format("%.7f", v));
+            return;
+        }
+        s.append(new BigDecimal(Double.toString(v)).setScale(7, RoundingMode.HALF_UP).toPlainString());
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * The results of one analysed sequence, every array covers steps 0 to the number of readings.
+ */
+public class RunResult {
+    private final double[][] filtered;   //filtering distribution of each step.
+    private final double[][] smoothed;   //forward-backward distribution of each step.
+    private final int[] likelyStates;    //the state with the largest smoothed probability at each step.
+    private final int[] viterbiStates;   //the most likely sequence of states.
+
+    public RunResult(double[][] filtered, double[][] smoothed, int[] likelyStates, int[] viterbiStates) {
+        this.filtered = filtered;
+        this.smoothed = smoothed;
+        this.likelyStates = likelyStates;
+        this.viterbiStates = viterbiStates;
+    }
+
+    public double[][] getFiltered() {
+        return filtered;
+    }
+
+    public double[][] getSmoothed() {
+        return smoothed;
+    }
+
+    public int[] getLikelyStates() {
+        return likelyStates;
+    }
+
+    public int[] getViterbiStates() {
+        return viterbiStates;
+    }
+}
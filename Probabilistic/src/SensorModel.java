@@ -0,0 +1,74 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Sensor model kept as one emission vector per color.
+ * The sensor matrices are diagonal, so O[color][i][i] is all that is stored:
+ * getEmission(color)[i] is the probability of reading color while standing on state i.
+ */
+public class SensorModel {
+    public static final char[] COLORS = {'r', 'g', 'b', 'y'};
+
+    private final double[][] emission; // [color index][state]
+
+    /**
+     * @param emission one vector per entry of COLORS, all of the same length.
+     */
+    public SensorModel(double[][] emission) {
+        if (emission.length != COLORS.length) throw new IllegalArgumentException("need one emission vector per color");
+        for (double[] e : emission) {
+            if (e.length != emission[0].length) throw new IllegalArgumentException("emission vectors differ in length");
+        }
+        this.emission = emission;
+    }
+
+    /**
+     * @return the position of color in COLORS.
+     */
+    public static int colorIndex(char color) {
+        switch (color) {
+            case 'r':
+                return 0;
+            case 'g':
+                return 1;
+            case 'b':
+                return 2;
+            case 'y':
+                return 3;
+            default:
+                throw new RuntimeException("wrong color");
+        }
+    }
+
+    public int getStateNumber() {
+        return emission[0].length;
+    }
+
+    /**
+     * @return the emission vector of color, shared and must not be modified.
+     */
+    public double[] getEmission(char color) {
+        return emission[colorIndex(color)];
+    }
+
+    public double getProbability(int state, char color) {
+        return emission[colorIndex(color)][state];
+    }
+
+    static long byteSize(int stateNumber) {
+        return (long) COLORS.length * stateNumber * Double.BYTES;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        for (double[] e : emission) {
+            TransitionModel.putDoubles(buffer, e);
+        }
+    }
+
+    static SensorModel readFrom(ByteBuffer buffer, int stateNumber) {
+        double[][] emission = new double[COLORS.length][];
+        for (int c = 0; c < COLORS.length; c++) {
+            emission[c] = TransitionModel.getDoubles(buffer, stateNumber);
+        }
+        return new SensorModel(emission);
+    }
+}
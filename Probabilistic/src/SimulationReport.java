@@ -0,0 +1,102 @@
+/**
+ * Scores of a batch of simulated runs: for every estimator, how often its state matched the
+ * actual position and how far off (in manhattan distance) it was, over steps 1 to steps of
+ * every run. Step 0 has no reading yet and is not scored.
+ * <p>
+ * Only integer totals are kept, so merging partial reports in any order gives the same result.
+ */
+public class SimulationReport {
+    public static final int FILTER = 0;
+    public static final int SMOOTHED = 1;
+    public static final int VITERBI = 2;
+    private static final String[] NAMES = {"filter", "smoothed", "viterbi"};
+
+    private long simulations;
+    private long scoredSteps;
+    private final long[] hits = new long[NAMES.length];
+    private final long[] distance = new long[NAMES.length];
+    private long elapsedNanos;
+
+    /**
+     * add the score of one run.
+     *
+     * @param estimator FILTER, SMOOTHED or VITERBI.
+     * @param estimate  the estimated state of every step.
+     * @param actual    the actual state of every step.
+     */
+    void score(int estimator, int[] estimate, int[] actual, StateIndex index) {
+        for (int t = 1; t < actual.length; t++) {
+            if (estimate[t] == actual[t]) {
+                hits[estimator]++;
+            } else {
+                distance[estimator] += Math.abs(index.getX(estimate[t]) - index.getX(actual[t]))
+                        + Math.abs(index.getY(estimate[t]) - index.getY(actual[t]));
+            }
+        }
+    }
+
+    /**
+     * count one finished run of the given length.
+     */
+    void addSimulation(int steps) {
+        simulations++;
+        scoredSteps += steps;
+    }
+
+    /**
+     * add the totals of other to this report.
+     */
+    void merge(SimulationReport other) {
+        simulations += other.simulations;
+        scoredSteps += other.scoredSteps;
+        for (int e = 0; e < NAMES.length; e++) {
+            hits[e] += other.hits[e];
+            distance[e] += other.distance[e];
+        }
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getSimulations() {
+        return simulations;
+    }
+
+    public long getScoredSteps() {
+        return scoredSteps;
+    }
+
+    /**
+     * @return the fraction of scored steps where the estimator found the actual state.
+     */
+    public double getAccuracy(int estimator) {
+        return scoredSteps == 0 ? 0 : (double) hits[estimator] / scoredSteps;
+    }
+
+    /**
+     * @return the mean manhattan distance between estimated and actual state over the scored steps.
+     */
+    public double getMeanErrorDistance(int estimator) {
+        return scoredSteps == 0 ? 0 : (double) distance[estimator] / scoredSteps;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getSimulationsPerSecond() {
+        return elapsedNanos == 0 ? 0 : simulations * 1e9 / elapsedNanos;
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(simulations).append(" simulations, ").append(scoredSteps).append(" scored steps, ")
+                .append(String.format("%.1f", getSimulationsPerSecond())).append(" simulations/s\n");
+        for (int e = 0; e < NAMES.length; e++) {
+            s.append(String.format("%-9s accuracy %.4f  mean error distance %.4f%n",
+                    NAMES[e], getAccuracy(e), getMeanErrorDistance(e)));
+        }
+        return s.toString();
+    }
+}
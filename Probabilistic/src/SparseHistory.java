@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows kept as sorted (state, float32 probability) pairs, dropping every entry at or below
+ * a threshold. Once the robot is localised a step costs a handful of entries instead of
+ * one per tile; the dropped mass simply reads back as zero.
+ */
+public class SparseHistory implements BeliefHistory {
+    private static final int[] NO_STATES = new int[0];
+    private static final float[] NO_VALUES = new float[0];
+
+    private final int stateNumber;
+    private final double threshold;
+    private final List<int[]> states = new ArrayList<>();
+    private final List<float[]> values = new ArrayList<>();
+    private int[] stateBuffer = new int[16];
+    private float[] valueBuffer = new float[16];
+
+    /**
+     * @param threshold entries at or below this value are dropped, 0 keeps every nonzero entry.
+     */
+    public SparseHistory(int stateNumber, double threshold) {
+        this.stateNumber = stateNumber;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public int getStateNumber() {
+        return stateNumber;
+    }
+
+    @Override
+    public int size() {
+        return states.size();
+    }
+
+    @Override
+    public void set(int step, double[] belief) {
+        int count = 0;
+        for (int j = 0; j < stateNumber; j++) {
+            if (belief[j] > threshold) {
+                if (count == stateBuffer.length) {
+                    stateBuffer = Arrays.copyOf(stateBuffer, count * 2);
+                    valueBuffer = Arrays.copyOf(valueBuffer, count * 2);
+                }
+                stateBuffer[count] = j;
+                valueBuffer[count] = (float) belief[j];
+                count++;
+            }
+        }
+        while (states.size() <= step) {
+            states.add(NO_STATES);
+            values.add(NO_VALUES);
+        }
+        states.set(step, Arrays.copyOf(stateBuffer, count));
+        values.set(step, Arrays.copyOf(valueBuffer, count));
+    }
+
+    @Override
+    public double[] get(int step, double[] out) {
+        Arrays.fill(out, 0);
+        int[] s = states.get(step);
+        float[] v = values.get(step);
+        for (int e = 0; e < s.length; e++) {
+            out[s[e]] = v[e];
+        }
+        return out;
+    }
+
+    @Override
+    public int argMax(int step) {
+        int[] s = states.get(step);
+        float[] v = values.get(step);
+        int maxIndex = 0;
+        float maxValue = 0;
+        for (int e = 0; e < s.length; e++) {
+            if (v[e] > maxValue) {
+                maxValue = v[e];
+                maxIndex = s[e];
+            }
+        }
+        return maxIndex;
+    }
+
+    /**
+     * @return the number of entries kept at step.
+     */
+    public int getEntryNumber(int step) {
+        return states.get(step).length;
+    }
+}
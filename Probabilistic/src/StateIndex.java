@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+/**
+ * Numbering of the legal tiles of a maze, kept in primitive arrays.
+ * States are numbered from 0 in row order starting at the bottom left, so
+ * (stateX[i], stateY[i]) is the position of state i, and cellToState gives the
+ * state of every cell (y * width + x), -1 for walls.
+ */
+public class StateIndex {
+    private final int width;
+    private final int height;
+    private final int[] stateX;
+    private final int[] stateY;
+    private final int[] cellToState;
+
+    private StateIndex(int width, int height, int[] stateX, int[] stateY, int[] cellToState) {
+        this.width = width;
+        this.height = height;
+        this.stateX = stateX;
+        this.stateY = stateY;
+        this.cellToState = cellToState;
+    }
+
+    /**
+     * number every legal tile of the maze.
+     */
+    public static StateIndex of(Maze maze) {
+        int[] cellToState = new int[maze.width * maze.height];
+        Arrays.fill(cellToState, -1);
+        int number = 0;
+        for (int y = 0; y < maze.height; y++) {
+            for (int x = 0; x < maze.width; x++) {
+                if (maze.isLegal(x, y)) {
+                    cellToState[y * maze.width + x] = number++;
+                }
+            }
+        }
+        int[] stateX = new int[number];
+        int[] stateY = new int[number];
+        for (int cell = 0; cell < cellToState.length; cell++) {
+            int state = cellToState[cell];
+            if (state >= 0) {
+                stateX[state] = cell % maze.width;
+                stateY[state] = cell / maze.width;
+            }
+        }
+        return new StateIndex(maze.width, maze.height, stateX, stateY, cellToState);
+    }
+
+    /**
+     * @return the number of states (legal tiles).
+     */
+    public int size() {
+        return stateX.length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getX(int state) {
+        return stateX[state];
+    }
+
+    public int getY(int state) {
+        return stateY[state];
+    }
+
+    /**
+     * @return the state at x, y, -1 for walls and positions off the map.
+     */
+    public int stateAt(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return -1;
+        return cellToState[y * width + x];
+    }
+
+    /**
+     * @param move one of the action constants of Maze.
+     * @return the state reached by the move, -1 when it runs into a wall or off the map.
+     */
+    public int neighbour(int state, int[] move) {
+        return stateAt(stateX[state] + move[0], stateY[state] + move[1]);
+    }
+
+    /**
+     * @return the position of state as "(x,y)", the way reports print it.
+     */
+    public String toString(int state) {
+        return "(" + stateX[state] + "," + stateY[state] + ")";
+    }
+}
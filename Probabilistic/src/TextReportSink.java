@@ -0,0 +1,81 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The table layout of the console report, written through one buffered writer
+ * with hand formatted numbers instead of a printf per cell.
+ */
+public class TextReportSink implements ReportSink {
+    private final Writer out;
+    private final boolean closeOut;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * @param out destination, wrapped in a buffer and closed with the sink.
+     */
+    public TextReportSink(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16), true);
+    }
+
+    /**
+     * @param out      destination, used as it is.
+     * @param closeOut close out together with the sink, otherwise only flush it.
+     */
+    public TextReportSink(Writer out, boolean closeOut) {
+        this.out = out;
+        this.closeOut = closeOut;
+    }
+
+    /**
+     * a sink on System.out that flushes but never closes it.
+     */
+    public static TextReportSink console() {
+        return new TextReportSink(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16), false);
+    }
+
+    @Override
+    public void println(String text) throws IOException {
+        out.write(text);
+        out.write('\n');
+    }
+
+    @Override
+    public void begin(String title, StateIndex index) throws IOException {
+        line.setLength(0);
+        for (int i = 0; i < index.size(); i++) {
+            line.append("_____________");
+        }
+        line.append('\n').append("| steps |");
+        for (int i = 0; i < index.size(); i++) {
+            line.append("   ").append(index.toString(i)).append("   |");
+        }
+        line.append('\n');
+        out.append(line);
+    }
+
+    @Override
+    public void row(int step, double[] distribution) throws IOException {
+        line.setLength(0);
+        line.append("| step").append(step).append(" | ");
+        for (double d : distribution) {
+            ReportSink.appendFixed7(line, d);
+            line.append(" | ");
+        }
+        line.append('\n');
+        out.append(line);
+    }
+
+    @Override
+    public void end() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeOut) {
+            out.close();
+        } else {
+            out.flush();
+        }
+    }
+}
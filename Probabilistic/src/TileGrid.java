@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read access to the cells of a floor plan, (0, 0) at the bottom left like Maze.
+ * TiledLocaliser only reads the cells of the blocks it works on, so the plan can stay
+ * on disk instead of being loaded into a Maze.
+ */
+public interface TileGrid {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @return the character of the cell, Maze.WALL for walls.
+     */
+    char getChar(int x, int y);
+
+    /**
+     * @return the cells of a maze already in memory.
+     */
+    static TileGrid of(Maze maze) {
+        return new TileGrid() {
+            @Override
+            public int getWidth() {
+                return maze.width;
+            }
+
+            @Override
+            public int getHeight() {
+                return maze.height;
+            }
+
+            @Override
+            public char getChar(int x, int y) {
+                return maze.getChar(x, y);
+            }
+        };
+    }
+
+    /**
+     * map a maze file instead of reading it, cells are read from the page cache on demand,
+     * so the file may be far larger than the heap.
+     *
+     * @param file a maze file whose rows all have the same length, "\n" or "\r\n" terminated.
+     */
+    static TileGrid mapped(Path file) throws IOException {
+        return new Mapped(file);
+    }
+
+    /**
+     * a maze file mapped read-only in segments of 1 GiB, row y of the maze at line height - 1 - y.
+     */
+    class Mapped implements TileGrid {
+        private static final int SEGMENT_SHIFT = 30;
+        private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+        private final MappedByteBuffer[] segments;
+        private final long length;
+        private final int width;
+        private final int height;
+        private final long stride;
+
+        Mapped(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                length = channel.size();
+                segments = new MappedByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+                for (int k = 0; k < segments.length; k++) {
+                    long offset = (long) k << SEGMENT_SHIFT;
+                    segments[k] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_MASK + 1, length - offset));
+                }
+            }
+            long newline = 0;
+            while (newline < length && byteAt(newline) != '\n') newline++;
+            if (newline > Integer.MAX_VALUE) throw new IllegalArgumentException("maze rows are too long: " + file);
+            width = (int) (newline > 0 && newline < length && byteAt(newline - 1) == '\r' ? newline - 1 : newline);
+            stride = newline + 1;
+            long rows = (length + stride - 1) / stride;
+            if (rows > Integer.MAX_VALUE) throw new IllegalArgumentException("maze has too many rows: " + file);
+            height = (int) rows;
+            if ((height - 1) * stride + width > length) {
+                throw new IllegalArgumentException("rows of a mapped maze must have the same length: " + file);
+            }
+        }
+
+        private byte byteAt(long position) {
+            return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public char getChar(int x, int y) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                throw new IndexOutOfBoundsException("cell " + x + ", " + y + " outside " + width + " x " + height);
+            }
+            return (char) (byteAt((height - 1 - y) * stride + x) & 0xff);
+        }
+    }
+}
@@ -0,0 +1,526 @@
+import java.util.Arrays;
+
+/**
+ * Localisation on floor plans too large for a flat state space.
+ * <p>
+ * The grid is cut into square blocks. Belief is only kept for the blocks carrying more than
+ * epsilon of the mass, as one array per block laid out like the maze, and a step visits those
+ * blocks and their four neighbours: inside a block the random walk is the 5 point stencil of
+ * GridStencil, and at the block edges the neighbouring cell is read from the adjacent block,
+ * so probability flows across the borders. Blocks whose mass falls to epsilon or below are
+ * dropped and the rest renormalized.
+ * <p>
+ * The per block model (floor mask, walls around each cell, colors) is built from the TileGrid
+ * on first use and kept in a bounded LRU cache, so only the blocks near the belief are ever
+ * read, and the plan itself can stay in a mapped file.
+ * <p>
+ * Active blocks live in slots of parallel arrays, found through an open addressing table on
+ * the packed block coordinates, and block arrays are recycled, so a step allocates nothing
+ * once the tables have grown to the size of the support.
+ * <p>
+ * There is no belief until reset or resetAround is called: a uniform start holds every block
+ * until the readings rule most of them out, so on plans larger than the heap the start has to
+ * be a window around a known rough position.
+ */
+public class TiledLocaliser {
+    private static final int VISITED = -2;  // slot of a candidate block that came out empty.
+
+    private final TileGrid grid;
+    private final int blockSize;
+    private final int blocksX;
+    private final int blocksY;
+    private final double epsilon;
+    private final double hit;
+    private final double miss;
+    private final double move;
+    private final double[] stayByWalls;
+
+    // blocks of the belief, in slots 0 to count - 1.
+    private final BlockTable slots = new BlockTable();
+    private long[] keys = new long[16];
+    private double[][] beliefs = new double[16][];
+    private int count;
+
+    // blocks of the step in progress.
+    private final BlockTable nextSlots = new BlockTable();
+    private long[] nextKeys = new long[16];
+    private double[][] nextBeliefs = new double[16][];
+    private double[] nextMass = new double[16];
+    private int nextCount;
+
+    // recycled block arrays.
+    private double[][] free = new double[16][];
+    private int freeCount;
+
+    // LRU cache of block models.
+    private final BlockTable modelSlots = new BlockTable();
+    private final BlockModel[] models;
+    private final long[] modelKeys;
+    private final long[] modelUse;
+    private int modelCount;
+    private long clock;
+
+    private long steps;
+
+    /**
+     * localiser with the default model parameters.
+     *
+     * @param blockSize side of a block in cells.
+     * @param epsilon   blocks with at most this share of the mass are dropped, in [0, 1).
+     */
+    public TiledLocaliser(TileGrid grid, int blockSize, double epsilon) {
+        this(grid, blockSize, epsilon, ModelParameters.DEFAULT, 4096);
+    }
+
+    /**
+     * @param parameters     sensor and motion parameters.
+     * @param maxBlockModels number of block models kept in memory.
+     */
+    public TiledLocaliser(TileGrid grid, int blockSize, double epsilon, ModelParameters parameters, int maxBlockModels) {
+        if (blockSize < 2) throw new IllegalArgumentException("block size must be at least 2");
+        if (!(epsilon >= 0 && epsilon < 1)) throw new IllegalArgumentException("epsilon must be in [0, 1)");
+        if (maxBlockModels < 1) throw new IllegalArgumentException("need room for at least one block model");
+        this.grid = grid;
+        this.blockSize = blockSize;
+        this.blocksX = (grid.getWidth() + blockSize - 1) / blockSize;
+        this.blocksY = (grid.getHeight() + blockSize - 1) / blockSize;
+        this.epsilon = epsilon;
+        this.hit = parameters.getSensorHit();
+        this.miss = parameters.getSensorMiss();
+        this.move = parameters.getMoveProbability();
+        this.stayByWalls = new double[5];
+        for (int walls = 0; walls < stayByWalls.length; walls++) {
+            stayByWalls[walls] = parameters.getStayProbability() + walls * move;
+        }
+        models = new BlockModel[maxBlockModels];
+        modelKeys = new long[maxBlockModels];
+        modelUse = new long[maxBlockModels];
+    }
+
+    /**
+     * start from the uniform distribution over every tile of the plan; this touches every block once.
+     */
+    public void reset() {
+        resetWindow(0, 0, grid.getWidth() - 1, grid.getHeight() - 1);
+    }
+
+    /**
+     * start from the uniform distribution over the tiles within radius (in both x and y) of x, y,
+     * for a robot whose rough position is known.
+     */
+    public void resetAround(int x, int y, int radius) {
+        resetWindow(Math.max(0, x - radius), Math.max(0, y - radius),
+                Math.min(grid.getWidth() - 1, x + radius), Math.min(grid.getHeight() - 1, y + radius));
+    }
+
+    private void resetWindow(int x0, int y0, int x1, int y1) {
+        clearBelief();
+        steps = 0;
+        long tiles = 0;
+        for (int by = y0 / blockSize; by <= y1 / blockSize; by++) {
+            for (int bx = x0 / blockSize; bx <= x1 / blockSize; bx++) {
+                BlockModel m = model(bx, by);
+                double[] b = obtain();
+                int tilesInBlock = 0;
+                for (int ly = 0; ly < blockSize; ly++) {
+                    int y = by * blockSize + ly;
+                    for (int lx = 0; lx < blockSize; lx++) {
+                        int x = bx * blockSize + lx;
+                        int i = ly * blockSize + lx;
+                        boolean inside = x >= x0 && x <= x1 && y >= y0 && y <= y1 && m.walls[i] >= 0;
+                        b[i] = inside ? 1 : 0;
+                        if (inside) tilesInBlock++;
+                    }
+                }
+                if (tilesInBlock > 0) {
+                    addBlock(key(bx, by), b);
+                    tiles += tilesInBlock;
+                } else {
+                    release(b);
+                }
+            }
+        }
+        if (tiles == 0) throw new IllegalArgumentException("no tile in the start area");
+        double p = 1.0 / tiles;
+        for (int s = 0; s < count; s++) {
+            double[] b = beliefs[s];
+            for (int i = 0; i < b.length; i++) {
+                b[i] *= p;
+            }
+        }
+    }
+
+    /**
+     * take one reading; the motion is the random walk of the model, as in BeliefTracker.
+     *
+     * @param color the color given by sensor after moving.
+     * @return P(color | readings so far), 0 when the reading is impossible and the belief is kept.
+     */
+    public double update(char color) {
+        if (count == 0) throw new RuntimeException("no belief, call reset or resetAround first");
+        int reading = SensorModel.colorIndex(color);
+        nextSlots.clear();
+        nextCount = 0;
+        double total = 0;
+        for (int s = 0; s < count; s++) {
+            long key = keys[s];
+            int bx = blockX(key), by = blockY(key);
+            total += visit(bx, by, reading);
+            total += visit(bx + 1, by, reading);
+            total += visit(bx - 1, by, reading);
+            total += visit(bx, by + 1, reading);
+            total += visit(bx, by - 1, reading);
+        }
+        if (!(total > 0)) {
+            for (int s = 0; s < nextCount; s++) {
+                release(nextBeliefs[s]);
+            }
+            return 0;
+        }
+
+        // drop the blocks at or below epsilon and normalize the others; when every block is
+        // that light (a spread belief over many blocks) keep them all.
+        double threshold = epsilon * total;
+        double kept = 0;
+        for (int s = 0; s < nextCount; s++) {
+            if (nextMass[s] > threshold) kept += nextMass[s];
+        }
+        if (kept == 0) {
+            threshold = Double.NEGATIVE_INFINITY;
+            kept = total;
+        }
+        clearBelief();
+        double inverse = 1.0 / kept;
+        for (int s = 0; s < nextCount; s++) {
+            double[] b = nextBeliefs[s];
+            if (nextMass[s] > threshold) {
+                for (int i = 0; i < b.length; i++) {
+                    b[i] *= inverse;
+                }
+                addBlock(nextKeys[s], b);
+            } else {
+                release(b);
+            }
+        }
+        steps++;
+        return total;
+    }
+
+    /**
+     * step the block at bx, by into the next belief, unless it is off the plan or already done.
+     *
+     * @return the mass it adds.
+     */
+    private double visit(int bx, int by, int reading) {
+        if (bx < 0 || bx >= blocksX || by < 0 || by >= blocksY) return 0;
+        long key = key(bx, by);
+        if (nextSlots.get(key) != BlockTable.ABSENT) return 0;
+        double[] out = obtain();
+        double mass = step(bx, by, reading, out);
+        if (!(mass > 0)) {
+            release(out);
+            nextSlots.put(key, VISITED);
+            return 0;
+        }
+        if (nextCount == nextKeys.length) {
+            nextKeys = Arrays.copyOf(nextKeys, nextCount * 2);
+            nextBeliefs = Arrays.copyOf(nextBeliefs, nextCount * 2);
+            nextMass = Arrays.copyOf(nextMass, nextCount * 2);
+        }
+        nextKeys[nextCount] = key;
+        nextBeliefs[nextCount] = out;
+        nextMass[nextCount] = mass;
+        nextSlots.put(key, nextCount++);
+        return mass;
+    }
+
+    /**
+     * predict and weight one block.
+     *
+     * @return the mass of the block.
+     */
+    private double step(int bx, int by, int reading, double[] out) {
+        BlockModel m = model(bx, by);
+        double[] centre = beliefAt(bx, by);
+        double[] east = beliefAt(bx + 1, by);
+        double[] west = beliefAt(bx - 1, by);
+        double[] north = beliefAt(bx, by + 1);
+        double[] south = beliefAt(bx, by - 1);
+        int b = blockSize;
+        double sum = 0;
+        for (int ly = 0; ly < b; ly++) {
+            for (int lx = 0; lx < b; lx++) {
+                int i = ly * b + lx;
+                int walls = m.walls[i];
+                if (walls < 0) {
+                    out[i] = 0;
+                    continue;
+                }
+                double inflow;
+                if (centre != null && lx > 0 && lx < b - 1 && ly > 0 && ly < b - 1) {
+                    inflow = centre[i - 1] + centre[i + 1] + centre[i - b] + centre[i + b];
+                } else {
+                    inflow = (lx > 0 ? at(centre, i - 1) : at(west, i + b - 1))
+                            + (lx < b - 1 ? at(centre, i + 1) : at(east, i - b + 1))
+                            + (ly > 0 ? at(centre, i - b) : at(south, i + b * (b - 1)))
+                            + (ly < b - 1 ? at(centre, i + b) : at(north, i - b * (b - 1)));
+                }
+                double v = (stayByWalls[walls] * at(centre, i) + move * inflow) * (m.color[i] == reading ? hit : miss);
+                out[i] = v;
+                sum += v;
+            }
+        }
+        return sum;
+    }
+
+    private static double at(double[] block, int i) {
+        return block == null ? 0 : block[i];
+    }
+
+    /**
+     * @return the belief of the block at bx, by, null when it holds none.
+     */
+    private double[] beliefAt(int bx, int by) {
+        if (bx < 0 || bx >= blocksX || by < 0 || by >= blocksY) return null;
+        int slot = slots.get(key(bx, by));
+        return slot >= 0 ? beliefs[slot] : null;
+    }
+
+    /**
+     * @return the most likely cell as {x, y}, the lowest row then column on ties.
+     */
+    public int[] getEstimate() {
+        int bestX = -1, bestY = -1;
+        double best = -1;
+        for (int s = 0; s < count; s++) {
+            int bx = blockX(keys[s]), by = blockY(keys[s]);
+            double[] b = beliefs[s];
+            for (int i = 0; i < b.length; i++) {
+                int x = bx * blockSize + i % blockSize, y = by * blockSize + i / blockSize;
+                if (b[i] > best || (b[i] == best && (y < bestY || (y == bestY && x < bestX)))) {
+                    best = b[i];
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+        }
+        return new int[]{bestX, bestY};
+    }
+
+    /**
+     * @return the belief of the cell at x, y, 0 outside the kept blocks.
+     */
+    public double getProbability(int x, int y) {
+        if (x < 0 || y < 0) return 0;
+        double[] b = beliefAt(x / blockSize, y / blockSize);
+        return b == null ? 0 : b[(y % blockSize) * blockSize + x % blockSize];
+    }
+
+    /**
+     * @return the number of blocks holding belief.
+     */
+    public int getActiveBlocks() {
+        return count;
+    }
+
+    /**
+     * @return the number of block models currently in memory.
+     */
+    public int getCachedModels() {
+        return modelCount;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    private static long key(int bx, int by) {
+        return ((long) bx << 32) | (by & 0xffffffffL);
+    }
+
+    private static int blockX(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int blockY(long key) {
+        return (int) key;
+    }
+
+    private void addBlock(long key, double[] belief) {
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            beliefs = Arrays.copyOf(beliefs, count * 2);
+        }
+        keys[count] = key;
+        beliefs[count] = belief;
+        slots.put(key, count++);
+    }
+
+    /**
+     * hand the blocks of the belief back to the pool.
+     */
+    private void clearBelief() {
+        for (int s = 0; s < count; s++) {
+            release(beliefs[s]);
+            beliefs[s] = null;
+        }
+        count = 0;
+        slots.clear();
+    }
+
+    private double[] obtain() {
+        if (freeCount == 0) return new double[blockSize * blockSize];
+        double[] b = free[--freeCount];
+        free[freeCount] = null;
+        return b;
+    }
+
+    private void release(double[] block) {
+        if (freeCount == free.length) free = Arrays.copyOf(free, freeCount * 2);
+        free[freeCount++] = block;
+    }
+
+    /**
+     * @return the model of the block at bx, by, built on a miss in place of the least recently used one.
+     */
+    private BlockModel model(int bx, int by) {
+        long key = key(bx, by);
+        int slot = modelSlots.get(key);
+        if (slot < 0) {
+            if (modelCount < models.length) {
+                slot = modelCount++;
+            } else {
+                slot = 0;
+                for (int s = 1; s < modelCount; s++) {
+                    if (modelUse[s] < modelUse[slot]) slot = s;
+                }
+                modelSlots.remove(modelKeys[slot]);
+            }
+            models[slot] = new BlockModel(grid, bx, by, blockSize);
+            modelKeys[slot] = key;
+            modelSlots.put(key, slot);
+        }
+        modelUse[slot] = ++clock;
+        return models[slot];
+    }
+
+    /**
+     * the cells of one block: walls around each tile (-1 for walls and cells off the plan)
+     * and the index of its color in SensorModel.COLORS (-1 for other characters).
+     */
+    private static class BlockModel {
+        final byte[] walls;
+        final byte[] color;
+
+        BlockModel(TileGrid grid, int bx, int by, int blockSize) {
+            walls = new byte[blockSize * blockSize];
+            color = new byte[blockSize * blockSize];
+            for (int ly = 0; ly < blockSize; ly++) {
+                for (int lx = 0; lx < blockSize; lx++) {
+                    int i = ly * blockSize + lx;
+                    int x = bx * blockSize + lx, y = by * blockSize + ly;
+                    if (!isLegal(grid, x, y)) {
+                        walls[i] = -1;
+                        color[i] = -1;
+                        continue;
+                    }
+                    int count = 0;
+                    if (!isLegal(grid, x + 1, y)) count++;
+                    if (!isLegal(grid, x - 1, y)) count++;
+                    if (!isLegal(grid, x, y + 1)) count++;
+                    if (!isLegal(grid, x, y - 1)) count++;
+                    walls[i] = (byte) count;
+                    char c = grid.getChar(x, y);
+                    color[i] = -1;
+                    for (int k = 0; k < SensorModel.COLORS.length; k++) {
+                        if (SensorModel.COLORS[k] == c) color[i] = (byte) k;
+                    }
+                }
+            }
+        }
+
+        private static boolean isLegal(TileGrid grid, int x, int y) {
+            return x >= 0 && x < grid.getWidth() && y >= 0 && y < grid.getHeight() && grid.getChar(x, y) != Maze.WALL;
+        }
+    }
+
+    /**
+     * open addressing map from packed block coordinates to an int, linear probing, kept at most half full.
+     */
+    private static class BlockTable {
+        static final int ABSENT = -1;
+
+        private long[] keys = new long[64];
+        private int[] values = new int[64];
+        private boolean[] used = new boolean[64];
+        private int size;
+
+        private int home(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(keys.length)));
+        }
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = home(key); used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return ABSENT;
+        }
+
+        void put(long key, int value) {
+            if (2 * (size + 1) > keys.length) grow();
+            int mask = keys.length - 1;
+            int i = home(key);
+            for (; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+            }
+            used[i] = true;
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int i = home(key);
+            while (used[i] && keys[i] != key) i = (i + 1) & mask;
+            if (!used[i]) return;
+            used[i] = false;
+            size--;
+            // shift back the entries of the run that probed past i.
+            for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+                int h = home(keys[j]);
+                boolean between = i <= j ? (h > i && h <= j) : (h > i || h <= j);
+                if (!between) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    used[i] = true;
+                    used[j] = false;
+                    i = j;
+                }
+            }
+        }
+
+        void clear() {
+            if (size == 0) return;
+            Arrays.fill(used, false);
+            size = 0;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes only the k most likely cells of every step, one line per step:
+ * "step3: (1,0)=0.9243057 (2,1)=0.0312345 ...", most likely first.
+ * Selecting them costs O(states * log k) and no per row allocation.
+ */
+public class TopKReportSink implements ReportSink {
+    private final Writer out;
+    private final boolean closeOut;
+    private final int k;
+    private final int[] heap;   // indices of the current top k, smallest probability at the root
+    private final StringBuilder line = new StringBuilder();
+    private StateIndex index;
+
+    public TopKReportSink(OutputStream out, int k) {
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16), true, k);
+    }
+
+    /**
+     * @param closeOut close out together with the sink, otherwise only flush it.
+     */
+    public TopKReportSink(Writer out, boolean closeOut, int k) {
+        if (k <= 0) throw new IllegalArgumentException("k must be positive");
+        this.out = out;
+        this.closeOut = closeOut;
+        this.k = k;
+        this.heap = new int[k];
+    }
+
+    @Override
+    public void begin(String title, StateIndex index) throws IOException {
+        this.index = index;
+        out.write("the " + k + " most likely cells of the " + title + " distribution:\n");
+    }
+
+    @Override
+    public void row(int step, double[] distribution) throws IOException {
+        int size = 0;
+        for (int i = 0; i < distribution.length; i++) {
+            if (size < k) {
+                heap[size++] = i;
+                siftUp(distribution, size - 1);
+            } else if (distribution[i] > distribution[heap[0]]) {
+                heap[0] = i;
+                siftDown(distribution, 0, size);
+            }
+        }
+        // pop the heap from the back so the line starts with the most likely cell:
+        for (int end = size - 1; end > 0; end--) {
+            int top = heap[0];
+            heap[0] = heap[end];
+            heap[end] = top;
+            siftDown(distribution, 0, end);
+        }
+        line.setLength(0);
+        line.append("step").append(step).append(':');
+        for (int i = 0; i < size; i++) {
+            line.append(' ').append(index.toString(heap[i])).append('=');
+            ReportSink.appendFixed7(line, distribution[heap[i]]);
+        }
+        line.append('\n');
+        out.append(line);
+    }
+
+    private void siftUp(double[] p, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (p[heap[i]] >= p[heap[parent]]) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(double[] p, int i, int size) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && p[heap[left]] < p[heap[smallest]]) smallest = left;
+            if (right < size && p[heap[right]] < p[heap[smallest]]) smallest = right;
+            if (smallest == i) return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int t = heap[a];
+        heap[a] = heap[b];
+        heap[b] = t;
+    }
+
+    @Override
+    public void end() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeOut) {
+            out.close();
+        } else {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Sparse transition model stored as compressed rows (CSR).
+ * Each tile can only reach its legal neighbours or stay in place,
+ * so a row holds at most five entries instead of one per tile.
+ * <p>
+ * The rows (successors of a state) are used by the backward message,
+ * the transposed rows (predecessors of a state) by filtering and viterbi.
+ */
+public class TransitionModel {
+    private final int stateNumber;
+
+    // successors: T[i][successor[e]] = successorProbability[e] for e in [successorStart[i], successorStart[i + 1])
+    private final int[] successorStart;
+    private final int[] successor;
+    private final double[] successorProbability;
+
+    // predecessors: T[predecessor[e]][j] = predecessorProbability[e] for e in [predecessorStart[j], predecessorStart[j + 1])
+    private final int[] predecessorStart;
+    private final int[] predecessor;
+    private final double[] predecessorProbability;
+
+    /**
+     * @param stateNumber number of states.
+     * @param rowStart    offsets of each row in column/probability, length stateNumber + 1.
+     * @param column      target state of each nonzero entry.
+     * @param probability transition probability of each nonzero entry.
+     */
+    public TransitionModel(int stateNumber, int[] rowStart, int[] column, double[] probability) {
+        if (rowStart.length != stateNumber + 1 || column.length != probability.length
+                || rowStart[stateNumber] != column.length) {
+            throw new IllegalArgumentException("malformed transition rows");
+        }
+        this.stateNumber = stateNumber;
+        this.successorStart = rowStart;
+        this.successor = column;
+        this.successorProbability = probability;
+
+        // transpose by counting sort, rows are visited in ascending order so
+        // every predecessor list ends up sorted by state as well.
+        int entries = column.length;
+        predecessorStart = new int[stateNumber + 1];
+        predecessor = new int[entries];
+        predecessorProbability = new double[entries];
+        for (int e = 0; e < entries; e++) {
+            predecessorStart[column[e] + 1]++;
+        }
+        for (int j = 0; j < stateNumber; j++) {
+            predecessorStart[j + 1] += predecessorStart[j];
+        }
+        int[] fill = new int[stateNumber];
+        for (int i = 0; i < stateNumber; i++) {
+            for (int e = rowStart[i]; e < rowStart[i + 1]; e++) {
+                int j = column[e];
+                int slot = predecessorStart[j] + fill[j]++;
+                predecessor[slot] = i;
+                predecessorProbability[slot] = probability[e];
+            }
+        }
+    }
+
+    private TransitionModel(int stateNumber, int[] successorStart, int[] successor, double[] successorProbability,
+                            int[] predecessorStart, int[] predecessor, double[] predecessorProbability) {
+        this.stateNumber = stateNumber;
+        this.successorStart = successorStart;
+        this.successor = successor;
+        this.successorProbability = successorProbability;
+        this.predecessorStart = predecessorStart;
+        this.predecessor = predecessor;
+        this.predecessorProbability = predecessorProbability;
+    }
+
+    /**
+     * @return the bytes writeTo needs for a model of this size.
+     */
+    static long byteSize(int stateNumber, int entryNumber) {
+        return 2L * (stateNumber + 1) * Integer.BYTES + 2L * entryNumber * (Integer.BYTES + Double.BYTES);
+    }
+
+    /**
+     * write both the rows and the transposed rows, so reading back needs no transpose.
+     */
+    void writeTo(ByteBuffer buffer) {
+        putInts(buffer, successorStart);
+        putInts(buffer, successor);
+        putInts(buffer, predecessorStart);
+        putInts(buffer, predecessor);
+        putDoubles(buffer, successorProbability);
+        putDoubles(buffer, predecessorProbability);
+    }
+
+    /**
+     * read back a model written by writeTo, the buffer must use the same byte order.
+     */
+    static TransitionModel readFrom(ByteBuffer buffer, int stateNumber, int entryNumber) {
+        int[] successorStart = getInts(buffer, stateNumber + 1);
+        int[] successor = getInts(buffer, entryNumber);
+        int[] predecessorStart = getInts(buffer, stateNumber + 1);
+        int[] predecessor = getInts(buffer, entryNumber);
+        double[] successorProbability = getDoubles(buffer, entryNumber);
+        double[] predecessorProbability = getDoubles(buffer, entryNumber);
+        checkRows(successorStart, successor, successorProbability, stateNumber, entryNumber);
+        checkRows(predecessorStart, predecessor, predecessorProbability, stateNumber, entryNumber);
+        return new TransitionModel(stateNumber, successorStart, successor, successorProbability,
+                predecessorStart, predecessor, predecessorProbability);
+    }
+
+    /**
+     * reject rows that would index out of bounds or are not probabilities.
+     */
+    private static void checkRows(int[] start, int[] column, double[] probability, int stateNumber, int entryNumber) {
+        if (start[0] != 0 || start[stateNumber] != entryNumber) throw new IllegalArgumentException("malformed transition rows");
+        for (int i = 0; i < stateNumber; i++) {
+            if (start[i + 1] < start[i]) throw new IllegalArgumentException("malformed transition rows");
+        }
+        for (int e = 0; e < entryNumber; e++) {
+            if (column[e] < 0 || column[e] >= stateNumber || !(probability[e] >= 0 && probability[e] <= 1)) {
+                throw new IllegalArgumentException("malformed transition entry " + e);
+            }
+        }
+    }
+
+    static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+    }
+
+    static void putDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+    }
+
+    static int[] getInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    static double[] getDoubles(ByteBuffer buffer, int length) {
+        double[] values = new double[length];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + length * Double.BYTES);
+        return values;
+    }
+
+    public int getStateNumber() {
+        return stateNumber;
+    }
+
+    public int getEntryNumber() {
+        return successor.length;
+    }
+
+    /**
+     * one step of prediction: out[j] = sum over i of T[i][j] * belief[i].
+     *
+     * @param belief the distribution of the previous step.
+     * @param out    receives the predicted distribution, must not be belief itself.
+     */
+    public void predict(double[] belief, double[] out) {
+        for (int j = 0; j < stateNumber; j++) {
+            double sum = 0;
+            for (int e = predecessorStart[j]; e < predecessorStart[j + 1]; e++) {
+                sum += predecessorProbability[e] * belief[predecessor[e]];
+            }
+            out[j] = sum;
+        }
+    }
+
+    /**
+     * one step of the backward recursion: out[i] = sum over j of T[i][j] * message[j].
+     *
+     * @param message the (sensor weighted) message of the next step.
+     * @param out     receives the propagated message, must not be message itself.
+     */
+    public void propagateBackward(double[] message, double[] out) {
+        for (int i = 0; i < stateNumber; i++) {
+            double sum = 0;
+            for (int e = successorStart[i]; e < successorStart[i + 1]; e++) {
+                sum += successorProbability[e] * message[successor[e]];
+            }
+            out[i] = sum;
+        }
+    }
+
+    public int predecessorStart(int state) {
+        return predecessorStart[state];
+    }
+
+    public int predecessorEnd(int state) {
+        return predecessorStart[state + 1];
+    }
+
+    public int predecessor(int entry) {
+        return predecessor[entry];
+    }
+
+    public double predecessorProbability(int entry) {
+        return predecessorProbability[entry];
+    }
+
+    public int successorStart(int state) {
+        return successorStart[state];
+    }
+
+    public int successorEnd(int state) {
+        return successorStart[state + 1];
+    }
+
+    public int successor(int entry) {
+        return successor[entry];
+    }
+
+    public double successorProbability(int entry) {
+        return successorProbability[entry];
+    }
+
+    /**
+     * @return T[from][to], zero when the two states are not connected.
+     */
+    public double getProbability(int from, int to) {
+        for (int e = successorStart[from]; e < successorStart[from + 1]; e++) {
+            if (successor[e] == to) return successorProbability[e];
+        }
+        return 0;
+    }
+}
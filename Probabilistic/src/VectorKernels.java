@@ -0,0 +1,62 @@
+/**
+ * The inner loops of MatrixTools. The scalar version is always there, the
+ * jdk.incubator.vector version (VectorApiKernels, in the optional vector/ source root)
+ * is picked when it was built and that module is loaded.
+ */
+interface VectorKernels {
+
+    /**
+     * y[yOffset + i] += a * x[xOffset + i] for i in [0, length).
+     */
+    void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /**
+     * out[i] = a[i] * b[i] for i in [0, length).
+     */
+    void multiply(double[] a, double[] b, double[] out, int length);
+
+    /**
+     * v[i] *= factor for i in [0, length).
+     */
+    void scale(double[] v, double factor, int length);
+
+    /**
+     * @return the sum of v[0, length).
+     */
+    double sum(double[] v, int length);
+
+    /**
+     * plain loops, simple enough for the JIT to unroll and auto-vectorize.
+     */
+    class Scalar implements VectorKernels {
+        @Override
+        public void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length) {
+            for (int i = 0; i < length; i++) {
+                y[yOffset + i] += a * x[xOffset + i];
+            }
+        }
+
+        @Override
+        public void multiply(double[] a, double[] b, double[] out, int length) {
+            for (int i = 0; i < length; i++) {
+                out[i] = a[i] * b[i];
+            }
+        }
+
+        @Override
+        public void scale(double[] v, double factor, int length) {
+            for (int i = 0; i < length; i++) {
+                v[i] *= factor;
+            }
+        }
+
+        @Override
+        public double sum(double[] v, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += v[i];
+            }
+            return sum;
+        }
+    }
+}
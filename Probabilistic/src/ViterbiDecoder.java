@@ -0,0 +1,134 @@
+/**
+ * Viterbi decoding in log space over the sparse transition model.
+ * <p>
+ * Scores are sums of logarithms, so long sequences cannot underflow, and each state
+ * only looks at its real predecessors. Backpointers are not kept for the whole run:
+ * the forward pass stores the score vector every checkpointInterval steps, and the
+ * traceback recomputes one segment at a time from its checkpoint. Memory is about
+ * (steps / checkpointInterval + checkpointInterval) vectors instead of one per step,
+ * for the price of a second forward pass.
+ */
+public class ViterbiDecoder {
+    private final TransitionModel T;
+    private final double[][] logEmission;  // [color index][state]
+    private final double[] logPredecessor; // log of T.predecessorProbability(e)
+    private final int checkpointInterval;
+
+    /**
+     * decoder with the checkpoint interval chosen per sequence as sqrt(steps).
+     */
+    public ViterbiDecoder(TransitionModel T, SensorModel O) {
+        this(T, O, 0);
+    }
+
+    /**
+     * @param checkpointInterval steps between two stored score vectors, 0 for sqrt(steps).
+     */
+    public ViterbiDecoder(TransitionModel T, SensorModel O, int checkpointInterval) {
+        if (checkpointInterval < 0) throw new IllegalArgumentException("checkpoint interval must not be negative");
+        this.T = T;
+        this.checkpointInterval = checkpointInterval;
+        int n = T.getStateNumber();
+        logEmission = new double[SensorModel.COLORS.length][n];
+        for (int c = 0; c < SensorModel.COLORS.length; c++) {
+            double[] e = O.getEmission(SensorModel.COLORS[c]);
+            for (int i = 0; i < n; i++) {
+                logEmission[c][i] = Math.log(e[i]);
+            }
+        }
+        logPredecessor = new double[T.getEntryNumber()];
+        for (int e = 0; e < logPredecessor.length; e++) {
+            logPredecessor[e] = Math.log(T.predecessorProbability(e));
+        }
+    }
+
+    public int getStateNumber() {
+        return T.getStateNumber();
+    }
+
+    /**
+     * find the most likely sequence of states.
+     *
+     * @param prior          the distribution of step 0.
+     * @param sensorReadings the color read after each move, reading i belongs to step i + 1.
+     * @return the states of steps 0 to sensorReadings.length.
+     */
+    public int[] decode(double[] prior, char[] sensorReadings) {
+        int n = T.getStateNumber();
+        int steps = sensorReadings.length;
+        int interval = checkpointInterval > 0 ? checkpointInterval : Math.max(1, (int) Math.ceil(Math.sqrt(steps)));
+        int segments = Math.max(1, (steps + interval - 1) / interval);
+
+        // forward pass, keeping the scores at the start of every segment:
+        double[][] checkpoint = new double[segments][];
+        double[] score = new double[n];
+        double[] next = new double[n];
+        for (int i = 0; i < n; i++) {
+            score[i] = Math.log(prior[i]);
+        }
+        for (int t = 0; t < steps; t++) {
+            if (t % interval == 0) checkpoint[t / interval] = score.clone();
+            step(score, sensorReadings[t], next, null);
+            double[] swap = score;
+            score = next;
+            next = swap;
+        }
+        if (steps == 0) checkpoint[0] = score.clone();
+
+        int[] path = new int[steps + 1];
+        path[steps] = argMax(score);
+
+        // traceback, one segment at a time from the last one:
+        int[][] backpointer = new int[Math.min(interval, Math.max(1, steps))][n];
+        for (int s = segments - 1; s >= 0; s--) {
+            int from = s * interval;
+            int to = Math.min(from + interval, steps);
+            System.arraycopy(checkpoint[s], 0, score, 0, n);
+            for (int t = from; t < to; t++) {
+                step(score, sensorReadings[t], next, backpointer[t - from]);
+                double[] swap = score;
+                score = next;
+                next = swap;
+            }
+            for (int t = to; t > from; t--) {
+                path[t - 1] = backpointer[t - 1 - from][path[t]];
+            }
+            checkpoint[s] = null;
+        }
+        return path;
+    }
+
+    /**
+     * one step of the max-product recursion in log space.
+     *
+     * @param score       log scores of the previous step.
+     * @param color       the reading of this step.
+     * @param out         receives the log scores of this step.
+     * @param backpointer receives the best predecessor of every state, may be null.
+     */
+    void step(double[] score, char color, double[] out, int[] backpointer) {
+        double[] e = logEmission[SensorModel.colorIndex(color)];
+        for (int j = 0; j < out.length; j++) {
+            double maxValue = Double.NEGATIVE_INFINITY;
+            int maxIndex = -1;
+            for (int edge = T.predecessorStart(j); edge < T.predecessorEnd(j); edge++) {
+                int k = T.predecessor(edge);
+                double temp = score[k] + logPredecessor[edge];
+                if (temp > maxValue || maxIndex < 0) {
+                    maxValue = temp;
+                    maxIndex = k;
+                }
+            }
+            out[j] = maxValue + e[j];
+            if (backpointer != null) backpointer[j] = maxIndex < 0 ? j : maxIndex;
+        }
+    }
+
+    static int argMax(double[] v) {
+        int maxIndex = 0;
+        for (int i = 1; i < v.length; i++) {
+            if (v[i] > v[maxIndex]) maxIndex = i;
+        }
+        return maxIndex;
+    }
+}
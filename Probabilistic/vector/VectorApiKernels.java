@@ -0,0 +1,70 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD inner loops on the incubating Vector API, with a scalar tail.
+ * <p>
+ * This source root is optional and kept apart from src/ so that src/ builds on a plain JDK.
+ * Compile it after src/ into the same output directory:
+ * {@code javac --add-modules jdk.incubator.vector -cp out -d out vector/*.java},
+ * and run with {@code --add-modules jdk.incubator.vector}. MatrixTools loads this class
+ * reflectively when it is on the class path and the module is present, the scalar loops otherwise.
+ */
+class VectorApiKernels implements VectorKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        DoubleVector factor = DoubleVector.broadcast(SPECIES, a);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector xv = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector yv = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            xv.fma(factor, yv).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += a * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public void multiply(double[] a, double[] b, double[] out, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)).intoArray(out, i);
+        }
+        for (; i < length; i++) {
+            out[i] = a[i] * b[i];
+        }
+    }
+
+    @Override
+    public void scale(double[] v, double factor, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, v, i).mul(factor).intoArray(v, i);
+        }
+        for (; i < length; i++) {
+            v[i] *= factor;
+        }
+    }
+
+    @Override
+    public double sum(double[] v, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (; i < bound; i += SPECIES.length()) {
+            acc = acc.add(DoubleVector.fromArray(SPECIES, v, i));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += v[i];
+        }
+        return sum;
+    }
+}